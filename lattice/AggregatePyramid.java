@@ -0,0 +1,292 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+
+/**
+* A multi-resolution pyramid (or mip-map) of aggregated values of the cells of a Lattice, for zoomed-out views and 
+* statistics. Level 0 has the value of each cell, given by a Value function, and each following level reduces blocks 
+* of 2x2 (2D) or 2x2x2 (3D) values of the previous one (SUM, MAX or MIN; a count is the SUM of a value of 0 or 1), 
+* down to a single value for the whole lattice. 
+* The pyramid is updated lazily: stepping the lattice only marks it as out of date, and it is brought up to date the 
+* first time it is read afterwards, so a sketch that steps many times between zoomed-out views only pays once.
+* By default, updating it reads the value of every cell and compares it with level 0. If the pyramid is created to 
+* track changes, only the cells marked with LatticeCell.markChanged() since the last update are read, so the cost 
+* is proportional to the cells that changed. In both cases only the blocks above the cells whose value changed are 
+* reduced again. Reading any level, or rendering it with Raster, is then proportional to its size and not to the 
+* size of the lattice.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class AggregatePyramid<CT extends LatticeCell<CT>> implements StepListener {
+
+    /**
+     * The value of each cell that is aggregated. If the lattice has dual state cells, it should read their past slot.
+     */
+	public interface Value<CT> {
+		long of(CT cell);
+	}
+
+    /**
+     * The reduction applied to the blocks of each level.
+     */
+	public enum Reduction {
+		SUM, MAX, MIN;
+
+		long apply(long a, long b){
+			return this == SUM ? a+b : this == MAX ? Math.max(a,b) : Math.min(a,b);
+		}
+
+		long identity(){
+			return this == SUM ? 0 : this == MAX ? Long.MIN_VALUE : Long.MAX_VALUE;
+		}
+	}
+
+	Lattice<CT> lattice;
+	Value<CT> value;
+	Reduction reduction;
+	boolean threeD;
+	int[] widths;
+	int[] heights;
+	int[] depths;
+	long[][] levels;
+	ChangeSet changes; //null if all cells are read in every update
+	boolean stale;
+	boolean restored;
+
+    /**
+     * The constructor, for a pyramid that reads the values of all cells when it is updated.
+     * @param lattice       The Lattice.
+     * @param value         The value of each cell.
+     * @param reduction     How the values of each block are reduced.
+     */
+	public AggregatePyramid(Lattice<CT> lattice, Value<CT> value, Reduction reduction){
+		this(lattice, value, reduction, false);
+	}
+
+    /**
+     * The constructor. It calculates all levels, and attaches the pyramid to the lattice so it is marked as out of date 
+     * after every step().
+     * @param lattice       The Lattice.
+     * @param value         The value of each cell.
+     * @param reduction     How the values of each block are reduced.
+     * @param trackChanges  If true, only the cells marked with LatticeCell.markChanged() are read when updating.
+     */
+	public AggregatePyramid(Lattice<CT> lattice, Value<CT> value, Reduction reduction, boolean trackChanges){
+		this.lattice=lattice;
+		this.value=value;
+		this.reduction=reduction;
+		threeD=lattice.size instanceof Vector3D;
+
+		int w=lattice.size.get(0);
+		int h=lattice.size.get(1);
+		int d=threeD ? lattice.size.get(2) : 1;
+		int n=1;
+		while(((w-1) >> (n-1)) > 0 || ((h-1) >> (n-1)) > 0 || ((d-1) >> (n-1)) > 0){
+			++n;
+		}
+		widths=new int[n];
+		heights=new int[n];
+		depths=new int[n];
+		levels=new long[n][];
+		for(int k=0;k<n; ++k){
+			widths[k]=((w-1) >> k) + 1;
+			heights[k]=((h-1) >> k) + 1;
+			depths[k]=((d-1) >> k) + 1;
+			levels[k]=new long[widths[k]*heights[k]*depths[k]];
+		}
+
+		Buffer<CT> cells=lattice.pastCells;
+		for(int i=0;i<levels[0].length; ++i){
+			levels[0][i]=value.of(cells.get(i));
+		}
+		for(int k=1;k<n; ++k){
+			for(int z=0;z<depths[k]; ++z){
+				for(int y=0;y<heights[k]; ++y){
+					for(int x=0;x<widths[k]; ++x){
+						levels[k][(z*heights[k] + y)*widths[k] + x]=reduceBlock(k, x, y, z);
+					}
+				}
+			}
+		}
+
+		stale=false;
+		restored=false;
+		lattice.listeners.add(this);
+		if(trackChanges){
+			changes=new ChangeSet(levels[0].length);
+			lattice.addChangeSet(changes);
+		}
+	}
+
+    /**
+     * Implementation of StepListener, called by the Lattice after every step(). It only marks the pyramid as out of date.
+     */
+	public void stepped(){
+		stale=true;
+	}
+
+    /**
+     * Implementation of StepListener, called when the cells are restored to an earlier generation. As the changes 
+     * are not marked, all cells are read in the next update.
+     */
+	public void restored(){
+		stale=true;
+		restored=true;
+	}
+
+    /**
+     * Brings the pyramid up to date, if the lattice has been stepped since the last time.
+     */
+	private void update(){
+		if(!stale){
+			return;
+		}
+		stale=false;
+		Buffer<CT> cells=lattice.pastCells;
+		if(changes == null || restored){
+			for(int i=0;i<levels[0].length; ++i){
+				update(cells, i);
+			}
+			if(changes != null){
+				changes.clear();
+			}
+			restored=false;
+			return;
+		}
+		for(int i=changes.next(0);i >= 0; i=changes.next(i+1)){
+			update(cells, i);
+		}
+	}
+
+	private void update(Buffer<CT> cells, int i){
+		long v=value.of(cells.get(i));
+		long old=levels[0][i];
+		if(v != old){
+			levels[0][i]=v;
+			propagate(i, old, v);
+		}
+	}
+
+    /**
+     * Updates the levels above a cell whose value changed. Sums are updated with the difference; for MAX and MIN the 
+     * blocks are reduced again, stopping as soon as a level does not change.
+     */
+	private void propagate(int i, long old, long v){
+		int x=lattice.size.foldCoord(i,0);
+		int y=lattice.size.foldCoord(i,1);
+		int z=threeD ? lattice.size.foldCoord(i,2) : 0;
+		for(int k=1;k<levels.length; ++k){
+			int index=((z >> k)*heights[k] + (y >> k))*widths[k] + (x >> k);
+			if(reduction == Reduction.SUM){
+				levels[k][index]+=v-old;
+			}
+			else{
+				long reduced=reduceBlock(k, x >> k, y >> k, z >> k);
+				if(reduced == levels[k][index]){
+					return;
+				}
+				levels[k][index]=reduced;
+			}
+		}
+	}
+
+	private long reduceBlock(int k, int x, int y, int z){
+		long[] below=levels[k-1];
+		int w=widths[k-1];
+		int h=heights[k-1];
+		int d=depths[k-1];
+		long r=reduction.identity();
+		for(int cz=2*z;cz<Math.min(2*z+2, d); ++cz){
+			for(int cy=2*y;cy<Math.min(2*y+2, h); ++cy){
+				for(int cx=2*x;cx<Math.min(2*x+2, w); ++cx){
+					r=reduction.apply(r, below[(cz*h + cy)*w + cx]);
+				}
+			}
+		}
+		return r;
+	}
+
+    /**
+     * @return the number of levels, the last one being a single value.
+     */
+	public int getLevels(){
+		return levels.length;
+	}
+
+	public int getWidth(int level){
+		return widths[level];
+	}
+
+	public int getHeight(int level){
+		return heights[level];
+	}
+
+	public int getDepth(int level){
+		return depths[level];
+	}
+
+    /**
+     * @param level     The level.
+     * @param x         The x coordinate in the level (the cells from x * 2^level to (x+1) * 2^level - 1).
+     * @param y         The y coordinate in the level.
+     * @return the aggregated value of the block.
+     */
+	public long get(int level, int x, int y){
+		return get(level, x, y, 0);
+	}
+
+    /**
+     * @param level     The level.
+     * @param x         The x coordinate in the level (the cells from x * 2^level to (x+1) * 2^level - 1).
+     * @param y         The y coordinate in the level.
+     * @param z         The z coordinate in the level.
+     * @return the aggregated value of the block.
+     */
+	public long get(int level, int x, int y, int z){
+		if(x < 0 || y < 0 || z < 0 || x >= widths[level] || y >= heights[level] || z >= depths[level]){
+			throw new IllegalArgumentException("trying to get a block outside level " + level + " of the AggregatePyramid");
+		}
+		update();
+		return levels[level][(z*heights[level] + y)*widths[level] + x];
+	}
+
+    /**
+     * @param level     The level.
+     * @return the array with the values of the level, ordered as the cells of a lattice of its size. It should not be modified.
+     */
+	public long[] values(int level){
+		update();
+		return levels[level];
+	}
+
+    /**
+     * @return the aggregated value of the whole lattice (such as the population, for a count).
+     */
+	public long total(){
+		update();
+		return levels[levels.length-1][0];
+	}
+}
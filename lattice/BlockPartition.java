@@ -0,0 +1,95 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+* Partitioning of a lattice into blocks of 2x2 (2D) or 2x2x2 (3D) cells, for block cellular automata using the 
+* Margolus neighbourhood. In even generations the blocks start at the origin, and in odd generations they are 
+* offset by one cell in every dimension, wrapping around the lattice as in Vector.wrapVal(). The cells of each 
+* block are given in order from left to right, top to bottom and front to back, so cell k of the block has the 
+* offset (k{@literal &}1, (k{@literal >>}1){@literal &}1, k{@literal >>}2). Used by Lattice.stepBlocks() and IntField.stepBlocks().
+* 
+* @author Pablo Miranda Carranza
+*/
+
+final class BlockPartition {
+
+    /**
+     * Receives the indices of the cells of each block.
+     */
+	interface Visitor {
+		void visit(int[] indices);
+	}
+
+	private BlockPartition(){}
+
+    /**
+     * @param size      A Vector specifying the size of the lattice.
+     * @return the number of cells in each block: 4 in 2D, 8 in 3D.
+     */
+	static int blockSize(Vector size){
+		return size instanceof Vector3D ? 8 : 4;
+	}
+
+    /**
+     * Visits all the blocks of a lattice. Blocks are independent, so rows of blocks can be visited in parallel; 
+     * visitors are created once for each row, so they can keep their own scratch arrays.
+     * @param size          A Vector specifying the size of the lattice, with even dimensions.
+     * @param generation    The generation, which gives the offset of the blocks.
+     * @param parallel      If true, the rows of blocks are visited in parallel.
+     * @param visitors      Creates the visitors.
+     */
+	static void forEach(Vector size, int generation, boolean parallel, Supplier<Visitor> visitors){
+		boolean threeD=size instanceof Vector3D;
+		int w=size.get(0);
+		int h=size.get(1);
+		int d=threeD ? size.get(2) : 1;
+		if(w % 2 != 0 || h % 2 != 0 || (threeD && d % 2 != 0)){
+			throw new IllegalArgumentException("the dimensions of a lattice partitioned in blocks need to be even");
+		}
+		int o=generation & 1;
+		int n=blockSize(size);
+		int rows=(h/2)*(threeD ? d/2 : 1);
+
+		IntStream range=IntStream.range(0, rows);
+		(parallel ? range.parallel() : range).forEach(r -> {
+			Visitor visitor=visitors.get();
+			int[] indices=new int[n];
+			int y0=2*(r % (h/2)) + o;
+			int z0=threeD ? 2*(r / (h/2)) + o : 0;
+			for(int x0=o;x0<w+o; x0+=2){
+				for(int k=0;k<n; ++k){
+					int x=Vector.wrapVal(x0 + (k & 1), w);
+					int y=Vector.wrapVal(y0 + ((k >> 1) & 1), h);
+					int z=Vector.wrapVal(z0 + (k >> 2), d);
+					indices[k]=(z*h + y)*w + x;
+				}
+				visitor.visit(indices);
+			}
+		});
+	}
+}
@@ -36,6 +36,7 @@ import java.util.Iterator;
 public class Buffer<CT extends LatticeCell<CT>> implements Iterable<CT> {
 	ArrayList<CT> cells; 
 	Vector sizeVec;
+	LayeredLattice layers; //if the lattice is a layer of a LayeredLattice, to use its neighbourhood
 
     /**
      * The constructor.
@@ -55,6 +56,34 @@ public class Buffer<CT extends LatticeCell<CT>> implements Iterable<CT> {
 		return cells.get(vec.wrapAround(sizeVec).unfoldOn(sizeVec));
 	}
 
+	CT get(int index){
+		return cells.get(index);
+	}
+
+	CT getRelative(int index, Vector offset){
+		if(layers != null){
+			int k=layers.number(offset);
+			if(k >= 0){
+				return cells.get(layers.neighbour(index, k));
+			}
+		}
+		return cells.get(sizeVec.offsetIndex(index, offset));
+	}
+
+    /**
+     * @param neighbours    The offsets of a neighbourhood.
+     * @param index         The index of a cell.
+     * @return the deltas of the LayeredLattice for the offsets, or null if the lattice is not a layer, they are not 
+     * all in its neighbourhood or the cell is not interior.
+     */
+	int[] neighbourDeltas(int index, Vector[] neighbours){
+		return layers != null && layers.isInterior(index) ? layers.deltas(neighbours) : null;
+	}
+
+	int size(){
+		return cells.size();
+	}
+
     /**
      * Implementation of the iterator() method, as part of Iterable{@literal <}CT{@literal >} 
      * @return      An iterator (Iterator{@literal <}CT{@literal >}) over all cells in the Buffer.
@@ -67,13 +96,13 @@ public class Buffer<CT extends LatticeCell<CT>> implements Iterable<CT> {
     /**
      * It instantiates an anonymous Iterable{@literal <}CT{@literal >} class that returns an 
      * Iterator{@literal <}CT{@literal >} over the neighbourhood defined by neighbours.
-     * @param pos           describes the position of the cell.
+     * @param index         describes the position of the cell, as its index in the Buffer.
      * @param  neighbours   the positions, in their adequate dimension, of the neighbours. 
      * @return An Iterable{@literal <}CT{@literal >}  object that returns an Iterator{@literal <}CT{@literal >} over the neighbourhood defined by neighbours.
     **/
 
-	Iterable<CT> getIterableInstance(Vector pos, Vector[] neighbours){
-		NeighborhoodIterator<CT> it=new NeighborhoodIterator<CT>(this,pos, neighbours);
+	Iterable<CT> getIterableInstance(int index, Vector[] neighbours){
+		NeighborhoodIterator<CT> it=new NeighborhoodIterator<CT>(this,index, neighbours);
 		return new Iterable<CT> () {
 			public Iterator<CT> iterator(){	
 				return it;
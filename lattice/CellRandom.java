@@ -0,0 +1,114 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+/**
+* Counter-based random numbers for stochastic rules. Instead of drawing from a shared generator (such as 
+* java.util.Random), whose results depend on the order in which the cells are stepped and which becomes a point of 
+* contention between threads, each number is a hash of a seed, the generation, the linear index of the cell and the 
+* number of the draw within that cell and generation, mixed with the SplitMix64 finaliser. The same key always 
+* gives the same number, regardless of threads or of the way the lattice is stepped, and nothing is allocated.
+* LatticeCell uses it through cellRandom() and related methods, and the fill() methods generate numbers in bulk for 
+* the sites of IntField or FloatField, in loops without dependencies between iterations.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public final class CellRandom {
+
+	private static final long GOLDEN=0x9E3779B97F4A7C15L;
+
+	private CellRandom(){}
+
+	private static long mix(long z){
+		z=(z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z=(z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+    /**
+     * @param seed          The seed of the lattice.
+     * @param generation    The generation.
+     * @param index         The linear index of the cell.
+     * @param draw          The number of the draw, to get several numbers for the same cell and generation.
+     * @return 64 random bits.
+     */
+	public static long bits(long seed, int generation, int index, int draw){
+		long h=mix(seed + GOLDEN*(generation+1L));
+		h=mix(h + GOLDEN*(index+1L));
+		return mix(h + GOLDEN*(draw+1L));
+	}
+
+    /**
+     * @return a random float between 0 (inclusive) and 1 (exclusive), for the given key (see bits()).
+     */
+	public static float uniform(long seed, int generation, int index, int draw){
+		return (bits(seed, generation, index, draw) >>> 40) * 0x1.0p-24f;
+	}
+
+    /**
+     * @return a random int between 0 (inclusive) and n (exclusive), for the given key (see bits()).
+     */
+	public static int below(long seed, int generation, int index, int draw, int n){
+		return (int)(((bits(seed, generation, index, draw) >>> 32) * n) >>> 32);
+	}
+
+    /**
+     * Fills an array with random floats between 0 and 1, one for each of a range of consecutive sites.
+     * @param out           The array to fill.
+     * @param offset        The position in out of the first number.
+     * @param length        Number of sites.
+     * @param firstSite     The linear index of the first site.
+     * @param seed          The seed.
+     * @param generation    The generation.
+     * @param draw          The number of the draw.
+     */
+	public static void fill(float[] out, int offset, int length, int firstSite, long seed, int generation, int draw){
+		long g=mix(seed + GOLDEN*(generation+1L));
+		long dr=GOLDEN*(draw+1L);
+		for(int i=0;i<length; ++i){
+			long h=mix(mix(g + GOLDEN*(firstSite+i+1L)) + dr);
+			out[offset+i]=(h >>> 40) * 0x1.0p-24f;
+		}
+	}
+
+    /**
+     * Fills an array with random ints between 0 and n, one for each of a range of consecutive sites.
+     * @param out           The array to fill.
+     * @param offset        The position in out of the first number.
+     * @param length        Number of sites.
+     * @param firstSite     The linear index of the first site.
+     * @param seed          The seed.
+     * @param generation    The generation.
+     * @param draw          The number of the draw.
+     * @param n             The upper bound (exclusive).
+     */
+	public static void fill(int[] out, int offset, int length, int firstSite, long seed, int generation, int draw, int n){
+		long g=mix(seed + GOLDEN*(generation+1L));
+		long dr=GOLDEN*(draw+1L);
+		for(int i=0;i<length; ++i){
+			long h=mix(mix(g + GOLDEN*(firstSite+i+1L)) + dr);
+			out[offset+i]=(int)(((h >>> 32) * n) >>> 32);
+		}
+	}
+}
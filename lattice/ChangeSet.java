@@ -0,0 +1,78 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.util.Arrays;
+
+/**
+* A record of the cells of a Lattice marked as changed with LatticeCell.markChanged(), kept by an AggregatePyramid 
+* or a LatticeHistory until it is read again. Cells are flagged individually and in blocks of 1024, so the changes can be found without 
+* going through the flags of every cell. Marking only writes the value 1 to two bytes, so it is safe from several threads.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+final class ChangeSet {
+
+	static final int BLOCK_SHIFT=10;
+
+	final byte[] cells;
+	final byte[] blocks;
+
+	ChangeSet(int size){
+		cells=new byte[size];
+		blocks=new byte[((size-1) >> BLOCK_SHIFT) + 1];
+	}
+
+	void mark(int index){
+		cells[index]=1;
+		blocks[index >> BLOCK_SHIFT]=1;
+	}
+
+    /**
+     * Finds the next marked cell, and clears its mark. Calling it with from=0 and then with the index returned plus 
+     * one, until it returns -1, visits and clears all marks in order.
+     * @param from      The index to start from.
+     * @return the index of the first marked cell at or after from, or -1 if there are none.
+     */
+	int next(int from){
+		for(int b=from >> BLOCK_SHIFT;b<blocks.length; ++b){
+			if(blocks[b] != 0){
+				int to=Math.min(cells.length, (b+1) << BLOCK_SHIFT);
+				for(int i=Math.max(from, b << BLOCK_SHIFT);i<to; ++i){
+					if(cells[i] != 0){
+						cells[i]=0;
+						return i;
+					}
+				}
+				blocks[b]=0;
+			}
+		}
+		return -1;
+	}
+
+	void clear(){
+		Arrays.fill(cells, (byte)0);
+		Arrays.fill(blocks, (byte)0);
+	}
+}
@@ -0,0 +1,276 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+* A lattice of continuous values (for reaction-diffusion, heat and similar models), stored in arrays of floats 
+* instead of LatticeCell objects. It has one or more channels (for example the two chemicals of a Gray-Scott model), 
+* each of them double buffered as in Lattice. In every step() the new values of each channel are calculated by 
+* applying its Stencil to the old values, and then a Reaction, if there is one, adds the pointwise reaction terms.
+* Both are done row by row: the stencil terms are applied as contiguous loops over the rows, that the JIT compiler can 
+* turn into SIMD instructions, and only the few sites at the ends of the rows that wrap around (with the same toroidal 
+* semantics as Vector.wrapVal()) are treated separately. The Reaction is called once per row, never once per cell.
+* In single buffer mode (see setSingleBuffer()) the second arrays are not allocated: the old values still needed are 
+* kept in a RollingWindow of a few rows (2D) or z-planes (3D), with the same results as double buffering.
+* With setParallel(), the field is stepped in parallel slabs of rows or planes, each with its own windows.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class FloatField {
+
+    /**
+     * Pointwise reaction terms of a FloatField. It is called once per row with the old values of all channels 
+     * and the new values already calculated by the stencils, which it should update in place between from and to.
+     * With double buffering, past and present are the whole arrays of the field; in single buffer mode they are 
+     * scratch arrays holding only part of it, so the position of a site should be calculated from site.
+     * If the field is stepped in parallel, it should not modify any shared data.
+     */
+	public interface Reaction {
+	    /**
+	     * @param past       The old values of each channel, indexed as past[channel][index].
+	     * @param present    The new values of each channel, indexed as present[channel][index].
+	     * @param from       The index in past and present of the first site of the row.
+	     * @param to         The index in past and present after the last site of the row.
+	     * @param site       The index of the first site of the row in the field (as in values()).
+	     */
+		void react(float[][] past, float[][] present, int from, int to, int site);
+	}
+
+	float[][] past;
+	float[][] present;
+	Stencil[] stencils;
+	Reaction reaction;
+	Vector size;
+	int w, h, d;
+	int generation;
+	boolean singleBuffer;
+	boolean parallel;
+
+    /**
+     * Constructor for 2D fields.
+     * @param channels      Number of values stored at each site.
+     * @param w             Width of the field.
+     * @param h             Height of the field.
+     */
+	public FloatField(int channels, int w, int h){
+		this(channels, new Vector2D(w,h));
+	}
+
+    /**
+     * Constructor for 3D fields.
+     * @param channels      Number of values stored at each site.
+     * @param w             Width of the field.
+     * @param h             Height of the field.
+     * @param d             Depth of the field.
+     */
+	public FloatField(int channels, int w, int h, int d){
+		this(channels, new Vector3D(w,h,d));
+	}
+
+	FloatField(int channels, Vector size){
+		this.size=size;
+		w=size.get(0);
+		h=size.get(1);
+		d=size instanceof Vector3D ? size.get(2) : 1;
+		past=new float[channels][size.coverSize()];
+		present=new float[channels][];
+		stencils=new Stencil[channels];
+		generation=0;
+		singleBuffer=false;
+		parallel=false;
+	}
+
+    /**
+     * @param singleBuffer  If true, step() updates the values in place, keeping only the old rows (or z-planes) 
+     *                      it still needs, which roughly halves the memory used. 
+     */
+	public void setSingleBuffer(boolean singleBuffer){
+		this.singleBuffer=singleBuffer;
+		if(singleBuffer){
+			Arrays.fill(present, null);
+		}
+	}
+
+    /**
+     * @param parallel      If true, step() processes slabs of rows (or z-planes) in parallel.
+     */
+	public void setParallel(boolean parallel){
+		this.parallel=parallel;
+	}
+
+    /**
+     * Sets the stencil used to calculate the new values of a channel. Channels without a stencil keep their old values
+     * (before the reaction terms are added).
+     * @param channel       The channel.
+     * @param stencil       A Stencil of the same dimensions as the field.
+     */
+	public void setStencil(int channel, Stencil stencil){
+		if(stencil.dims != (size instanceof Vector3D ? 3 : 2)){
+			throw new IllegalArgumentException("the dimensions of the Stencil do not match those of the FloatField");
+		}
+		stencils[channel]=stencil;
+	}
+
+    /**
+     * @param reaction      The Reaction applied after the stencils in every step, or null for none.
+     */
+	public void setReaction(Reaction reaction){
+		this.reaction=reaction;
+	}
+
+	public float get(int channel, int x, int y){
+		return past[channel][new Vector2D(x,y).wrapAround(size).unfoldOn(size)];
+	}
+
+	public float get(int channel, int x, int y, int z){
+		return past[channel][new Vector3D(x,y,z).wrapAround(size).unfoldOn(size)];
+	}
+
+	public void set(int channel, int x, int y, float val){
+		past[channel][new Vector2D(x,y).wrapAround(size).unfoldOn(size)]=val;
+	}
+
+	public void set(int channel, int x, int y, int z, float val){
+		past[channel][new Vector3D(x,y,z).wrapAround(size).unfoldOn(size)]=val;
+	}
+
+    /**
+     * @param channel       The channel.
+     * @return the array with the current values of the channel, ordered as the cells of a Lattice of the same size. 
+     * It can be read and written directly, but it is swapped in every step(), so it should not be kept.
+     */
+	public float[] values(int channel){
+		return past[channel];
+	}
+
+    /**
+     * @return the number of times step() has been called.
+     */
+	public int getGeneration(){
+		return generation;
+	}
+
+    /**
+     * It calculates the new values of all channels, row by row, and swaps the past and present arrays when done 
+     * (or updates the values in place, in single buffer mode).
+     */
+	public void step(){
+		boolean threeD=size instanceof Vector3D;
+		int channels=past.length;
+		int units=threeD ? d : h;
+		int unit=threeD ? w*h : w;
+		RollingWindow[][] windows=new RollingWindow[channels][];
+		for(int c=0;c<channels; ++c){
+			if(!singleBuffer && present[c] == null){
+				present[c]=new float[past[c].length];
+			}
+			int radius=0;
+			if(stencils[c] != null){
+				for(int off: threeD ? stencils[c].dz : stencils[c].dy){
+					radius=Math.max(radius, Math.abs(off));
+				}
+			}
+			windows[c]=RollingWindow.partition(past[c], singleBuffer ? null : present[c], units, unit, radius, parallel);
+		}
+		int count=windows[0].length;
+
+		RollingWindow.forEachSlab(count, parallel, windows, s -> {
+			RollingWindow[] slab=new RollingWindow[channels];
+			float[][] dst=new float[channels][];
+			float[][] old=singleBuffer ? new float[channels][unit] : past;
+			for(int c=0;c<channels; ++c){
+				slab[c]=windows[c][s];
+			}
+			for(int u=slab[0].first;u<slab[0].last; ++u){
+				int rows=threeD ? h : 1;
+				for(int c=0;c<channels; ++c){
+					dst[c]=(float[]) slab[c].dst();
+					if(singleBuffer && reaction != null){
+						System.arraycopy(past[c], u*unit, old[c], 0, unit);
+					}
+				}
+				for(int r=0;r<rows; ++r){
+					int y=threeD ? r : u;
+					int z=threeD ? u : 0;
+					int site=(z*h + y)*w;
+					int to=slab[0].dstOffset(u) + r*w;
+					for(int c=0;c<channels; ++c){
+						if(stencils[c] == null){
+							System.arraycopy(past[c], site, dst[c], to, w);
+						}
+						else{
+							applyRow(stencils[c], slab[c], u, dst[c], to, y, z);
+						}
+					}
+					if(reaction != null){
+						reaction.react(old, dst, to, to+w, site);
+					}
+				}
+				for(int c=0;c<channels; ++c){
+					slab[c].commit(u);
+				}
+			}
+		});
+
+		//and swap:
+		if(!singleBuffer){
+			float[][] temp=past; 
+			past=present;
+			present=temp;
+		}
+		++generation;
+	}
+
+    /**
+     * Applies a stencil to one row, reading the old values of unit u of the slab (the row, or the z-plane containing 
+     * it) from wherever the slab has them. Each term of the stencil is a contiguous loop over the row, except for the 
+     * sites at either end that need to be wrapped around.
+     */
+	private void applyRow(Stencil stencil, RollingWindow slab, int u, float[] dst, int to, int y, int z){
+		boolean threeD=size instanceof Vector3D;
+		Arrays.fill(dst, to, to+w, 0f);
+		for(int k=0;k<stencil.weights.length; ++k){
+			float wk=stencil.weights[k];
+			int dx=stencil.dx[k];
+			int sy=Vector.wrapVal(y+stencil.dy[k],h);
+			float[] src=(float[]) slab.resolve(threeD ? Vector.wrapVal(z+stencil.dz[k],d) : sy, u);
+			int srcRow=slab.offset + (threeD ? sy*w : 0);
+
+			int lo=Math.min(w, Math.max(0, -dx));
+			int hi=Math.max(lo, Math.min(w, w-dx));
+			for(int x=lo;x<hi; ++x){
+				dst[to+x]+=wk*src[srcRow+x+dx];
+			}
+			for(int x=0;x<lo; ++x){
+				dst[to+x]+=wk*src[srcRow+Vector.wrapVal(x+dx,w)];
+			}
+			for(int x=hi;x<w; ++x){
+				dst[to+x]+=wk*src[srcRow+Vector.wrapVal(x+dx,w)];
+			}
+		}
+	}
+}
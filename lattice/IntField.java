@@ -0,0 +1,245 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.Arrays;
+
+/**
+* A lattice of integer states stored in arrays of ints instead of LatticeCell objects, double buffered as in Lattice.
+* It is stepped with a compiled TotalisticRule: the weighted sums of the neighbours are accumulated row by row, with 
+* contiguous loops for each neighbour except for the sites at the ends of the rows that wrap around (as in 
+* Vector.wrapVal()), and then the next states are looked up in the table of the rule. No per-cell code is called.
+* It can also be stepped as a block cellular automaton with stepBlocks(), which updates the states in place. The 
+* second array is only allocated the first time step() is called, so a field only stepped by blocks uses half the memory.
+* In single buffer mode (see setSingleBuffer()) step() does not use the second array either: the old states still 
+* needed are kept in a RollingWindow of a few rows (2D) or z-planes (3D), with the same results as double buffering.
+* With setParallel(), the field is stepped in parallel slabs of rows or planes, each with its own window.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class IntField {
+
+    /**
+     * A rule for block cellular automata, transforming the states of a block in place.
+     */
+	public interface BlockRule {
+	    /**
+	     * @param block      The states of the 4 (2D) or 8 (3D) cells of the block, ordered from left to right, top to 
+	     *                   bottom and front to back. The new states should be written into the same array.
+	     * @param generation The current generation, which can be used for rules alternating between two transformations.
+	     */
+		void apply(int[] block, int generation);
+	}
+
+	int[] past;
+	int[] present;
+	Vector size;
+	int w, h, d;
+	int generation;
+	boolean singleBuffer;
+	boolean parallel;
+
+    /**
+     * Constructor for 2D fields.
+     * @param w             Width of the field.
+     * @param h             Height of the field.
+     */
+	public IntField(int w, int h){
+		this(new Vector2D(w,h));
+	}
+
+    /**
+     * Constructor for 3D fields.
+     * @param w             Width of the field.
+     * @param h             Height of the field.
+     * @param d             Depth of the field.
+     */
+	public IntField(int w, int h, int d){
+		this(new Vector3D(w,h,d));
+	}
+
+	IntField(Vector size){
+		this.size=size;
+		w=size.get(0);
+		h=size.get(1);
+		d=size instanceof Vector3D ? size.get(2) : 1;
+		past=new int[size.coverSize()];
+		present=null; //allocated by step(), not needed by stepBlocks() or in single buffer mode
+		generation=0;
+		singleBuffer=false;
+		parallel=false;
+	}
+
+    /**
+     * @param singleBuffer  If true, step() updates the states in place, keeping only the old rows (or z-planes) 
+     *                      it still needs, which roughly halves the memory used. 
+     */
+	public void setSingleBuffer(boolean singleBuffer){
+		this.singleBuffer=singleBuffer;
+		if(singleBuffer){
+			present=null;
+		}
+	}
+
+    /**
+     * @param parallel      If true, step() processes slabs of rows (or z-planes) in parallel.
+     */
+	public void setParallel(boolean parallel){
+		this.parallel=parallel;
+	}
+
+	public int get(int x, int y){
+		return past[new Vector2D(x,y).wrapAround(size).unfoldOn(size)];
+	}
+
+	public int get(int x, int y, int z){
+		return past[new Vector3D(x,y,z).wrapAround(size).unfoldOn(size)];
+	}
+
+	public void set(int x, int y, int val){
+		past[new Vector2D(x,y).wrapAround(size).unfoldOn(size)]=val;
+	}
+
+	public void set(int x, int y, int z, int val){
+		past[new Vector3D(x,y,z).wrapAround(size).unfoldOn(size)]=val;
+	}
+
+    /**
+     * @return the array with the current states, ordered as the cells of a Lattice of the same size. 
+     * It can be read and written directly, but it is swapped in every step(), so it should not be kept.
+     */
+	public int[] values(){
+		return past;
+	}
+
+    /**
+     * @return the number of times step() has been called.
+     */
+	public int getGeneration(){
+		return generation;
+	}
+
+    /**
+     * It calculates the next states of all sites with the given rule, row by row, and swaps the past and present 
+     * arrays when done (or updates the states in place, in single buffer mode).
+     * @param rule          A TotalisticRule of the same dimensions as the field.
+     */
+	public void step(TotalisticRule rule){
+		boolean threeD=size instanceof Vector3D;
+		if(rule.dims != (threeD ? 3 : 2)){
+			throw new IllegalArgumentException("the dimensions of the TotalisticRule do not match those of the IntField");
+		}
+		if(!singleBuffer && present == null){
+			present=new int[past.length];
+		}
+		int radius=0;
+		for(int off: threeD ? rule.dz : rule.dy){
+			radius=Math.max(radius, Math.abs(off));
+		}
+		RollingWindow[] slabs=RollingWindow.partition(past, singleBuffer ? null : present, 
+			threeD ? d : h, threeD ? w*h : w, radius, parallel);
+
+		RollingWindow.forEachSlab(slabs.length, parallel, new RollingWindow[][]{slabs}, s -> {
+			RollingWindow slab=slabs[s];
+			int[] sums=new int[w];
+			for(int u=slab.first;u<slab.last; ++u){
+				int[] dst=(int[]) slab.dst();
+				int rows=threeD ? h : 1;
+				for(int r=0;r<rows; ++r){
+					int y=threeD ? r : u;
+					int z=threeD ? u : 0;
+					sumRow(rule, slab, u, y, z, sums);
+					int from=(z*h + y)*w;
+					int to=slab.dstOffset(u) + r*w;
+					for(int x=0;x<w; ++x){
+						dst[to+x]=rule.table[past[from+x]*rule.range + sums[x]-rule.minSum];
+					}
+				}
+				slab.commit(u);
+			}
+		});
+
+		//and swap:
+		if(!singleBuffer){
+			int[] temp=past; 
+			past=present;
+			present=temp;
+		}
+		++generation;
+	}
+
+    /**
+     * It steps the field as a block cellular automaton, applying the rule in place to each of the blocks of 2x2 (2D) 
+     * or 2x2x2 (3D) sites, which are offset by one site in odd generations (the Margolus neighbourhood). 
+     * The dimensions of the field need to be even.
+     * @param rule          The BlockRule.
+     * @param parallel      If true, the blocks are processed in parallel (the rule should then not modify shared data).
+     */
+	public void stepBlocks(BlockRule rule, boolean parallel){
+		int gen=generation;
+		BlockPartition.forEach(size, gen, parallel, () -> {
+			int[] block=new int[BlockPartition.blockSize(size)];
+			return indices -> {
+				for(int k=0;k<block.length; ++k){
+					block[k]=past[indices[k]];
+				}
+				rule.apply(block, gen);
+				for(int k=0;k<block.length; ++k){
+					past[indices[k]]=block[k];
+				}
+			};
+		});
+		++generation;
+	}
+
+    /**
+     * Accumulates the weighted sums of the neighbours of one row in sums, reading the old states of unit u 
+     * of the slab (the row, or the z-plane containing it) from wherever the slab has them.
+     */
+	private void sumRow(TotalisticRule rule, RollingWindow slab, int u, int y, int z, int[] sums){
+		boolean threeD=size instanceof Vector3D;
+		int[] values=rule.stateValues;
+		Arrays.fill(sums, 0);
+		for(int k=0;k<rule.weights.length; ++k){
+			int wk=rule.weights[k];
+			int dx=rule.dx[k];
+			int sy=Vector.wrapVal(y+rule.dy[k],h);
+			int[] src=(int[]) slab.resolve(threeD ? Vector.wrapVal(z+rule.dz[k],d) : sy, u);
+			int srcRow=slab.offset + (threeD ? sy*w : 0);
+
+			int lo=Math.min(w, Math.max(0, -dx));
+			int hi=Math.max(lo, Math.min(w, w-dx));
+			for(int x=lo;x<hi; ++x){
+				sums[x]+=wk*values[src[srcRow+x+dx]];
+			}
+			for(int x=0;x<lo; ++x){
+				sums[x]+=wk*values[src[srcRow+Vector.wrapVal(x+dx,w)]];
+			}
+			for(int x=hi;x<w; ++x){
+				sums[x]+=wk*values[src[srcRow+Vector.wrapVal(x+dx,w)]];
+			}
+		}
+	}
+}
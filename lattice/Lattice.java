@@ -23,9 +23,11 @@ limitations under the License.
 package lattice;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Field;
+import java.lang.reflect.Array;
 
 import java.lang.Iterable;
 
@@ -40,14 +42,36 @@ import java.lang.Iterable;
  * which the CT objects will be internal to is necessary in order to instantiate the CT objects using reflection, and need to 
  * be passed in the constructor. The constructor also needs the class type of CT (because of Java type erasure this is not 
  * available to CT), which is also needed in the constructor.
+ * Optionally, a Lattice can be created with dual state cells. In that case only one buffer of cells is instantiated, 
+ * and each cell keeps both its past and present states, swapped by the parity of the generation (see 
+ * LatticeCell.pastSlot() and LatticeCell.presentSlot()). This halves the number of cell objects.
  * 
  * @author Pablo Miranda Carranza
  */
 
 public class Lattice<CT extends LatticeCell<CT>> {
 
+    /**
+     * A rule for block cellular automata, transforming the cells of a block in place (see stepBlocks()).
+     */
+	public interface BlockRule<CT> {
+	    /**
+	     * @param block      The 4 (2D) or 8 (3D) cells of the block, ordered from left to right, top to bottom and 
+	     *                   front to back. Their states should be exchanged or modified in place.
+	     * @param generation The current generation.
+	     */
+		void apply(CT[] block, int generation);
+	}
+
 	Buffer<CT> pastCells;
 	Buffer<CT> presentCells;
+	Vector size;
+	Class<CT> cellType;
+	int generation;
+	long seed;
+	boolean dualState;
+	ArrayList<StepListener> listeners;
+	ChangeSet[] changeSets; //filled by LatticeCell.markChanged()
 
     
     /**
@@ -73,6 +97,31 @@ public class Lattice<CT extends LatticeCell<CT>> {
         this(pt,cellType,new Vector3D(w,h,d));
     }
 
+    /**
+     * Constructor for 2D Lattices, optionally with dual state cells. 
+     * @param pt            A reference to the PApplet object in which the  CT class is implemented. 
+     * @param cellType      The Class of the CT parameter.
+     * @param w             Width of the lattice.
+     * @param h             Height of the lattice.
+     * @param dualState     If true, a single cell per site keeps both the past and present states.
+     */
+    public <PT> Lattice (PT pt, Class<CT> cellType, int w, int h, boolean dualState) {
+        this(pt,cellType,new Vector2D(w,h),dualState);
+    }
+
+    /**
+     * Constructor for 3D Lattices, optionally with dual state cells. 
+     * @param pt            A reference to the PApplet object in which the  CT class is implemented. 
+     * @param cellType      The Class of the CT parameter.
+     * @param w             Width of the lattice.
+     * @param h             Height of the lattice.
+     * @param d             Depth of the lattice.
+     * @param dualState     If true, a single cell per site keeps both the past and present states.
+     */
+    public <PT> Lattice (PT pt, Class<CT> cellType, int w, int h, int d, boolean dualState) {
+        this(pt,cellType,new Vector3D(w,h,d),dualState);
+    }
+
     /**
      * General constructor for lattices.
      * @param pt            A reference to the PApplet object in which the  CT class is implemented. 
@@ -80,20 +129,39 @@ public class Lattice<CT extends LatticeCell<CT>> {
      * @param size          A Vector implementation with the correct methods for calculating buffer sizes and positions
      */
     public <PT> Lattice (PT pt, Class<CT> cellType, Vector size) {
+        this(pt,cellType,size,false);
+    }
+
+    /**
+     * General constructor for lattices, optionally with dual state cells.
+     * @param pt            A reference to the PApplet object in which the  CT class is implemented. 
+     * @param cellType      The Class of the CT parameter.
+     * @param size          A Vector implementation with the correct methods for calculating buffer sizes and positions
+     * @param dualState     If true, a single cell per site keeps both the past and present states.
+     */
+    public <PT> Lattice (PT pt, Class<CT> cellType, Vector size, boolean dualState) {
        
+        this.size=size;
+        this.cellType=cellType;
+        this.dualState=dualState;
+        generation=0;
+        listeners=new ArrayList<StepListener>();
+        changeSets=new ChangeSet[0];
+
         pastCells = new Buffer<CT>(size);
-        presentCells = new Buffer<CT>(size);
+        presentCells = dualState ? pastCells : new Buffer<CT>(size);
 
         for(int i=0;i<size.coverSize(); ++i){
-            Vector pos=size.foldInto(i);
 
             CT pastCell=createCellInstance(pt,cellType);
-            pastCell.initialise(pastCells, pos); 
+            pastCell.initialise(this, i); 
             pastCells.add(pastCell);
 
-            CT presentCell=createCellInstance(pt,cellType);
-            presentCell.initialise(presentCells, pos); 
-            presentCells.add(presentCell);
+            if(!dualState){
+                CT presentCell=createCellInstance(pt,cellType);
+                presentCell.initialise(this, i); 
+                presentCells.add(presentCell);
+            }
 
         }
 
@@ -102,12 +170,31 @@ public class Lattice<CT extends LatticeCell<CT>> {
             cell.init();
         }
         
-        for(CT cell: presentCells){
-            cell.init();
+        if(!dualState){
+            for(CT cell: presentCells){
+                cell.init();
+            }
         }
     }
 
+    /**
+     * Adds a ChangeSet to be filled by LatticeCell.markChanged(). The array is replaced rather than modified, so cells 
+     * being stepped in parallel always see a complete one.
+     */
+    void addChangeSet(ChangeSet changes){
+        ChangeSet[] sets=Arrays.copyOf(changeSets, changeSets.length+1);
+        sets[changeSets.length]=changes;
+        changeSets=sets;
+    }
 
+    /**
+     * Finds the buffer a cell belongs to, so cells do not need to keep a reference to it.
+     * @param  cell          A cell of this lattice.
+     * @return the pastCells or presentCells buffer, whichever holds the cell.
+     */
+    Buffer<CT> bufferOf(LatticeCell<CT> cell){
+        return pastCells.get(cell.index) == cell ? pastCells : presentCells;
+    }
 
     /**
      * @param  pt            A reference to the PApplet object in which the  CT class is implemented. 
@@ -164,6 +251,14 @@ public class Lattice<CT extends LatticeCell<CT>> {
 		return pastCells; //ArrayList implements Iterable
 	}
 
+    /**
+     * @param  index         The linear index of a cell (see LatticeCell.getIndex()).
+     * @return the past cell with that index, for example to read the state of the same site in another lattice.
+     */
+	public CT getPastCell(int index){
+		return pastCells.get(index);
+	}
+
     /**
      * @return the presentCells buffer , which implements Iterable{@literal <}CT{@literal >} 
      */
@@ -180,18 +275,85 @@ public class Lattice<CT extends LatticeCell<CT>> {
 		}
 	}
 
+    /**
+     * @return the number of times step() has been called.
+     */
+	public int getGeneration(){
+		return generation;
+	}
+
+    /**
+     * @param seed      The seed of the random numbers given to the cells by LatticeCell.cellRandom() and related methods.
+     */
+	public void setSeed(long seed){
+		this.seed=seed;
+	}
+
+	public long getSeed(){
+		return seed;
+	}
+
     /**
      * It calls the step() method for all present cells, and swaps the present and past cells when done.
+     * With dual state cells, each cell is passed itself as oldCell, and the swap is just the change of 
+     * generation parity. Any LatticeHistory or AggregatePyramid created for the lattice is then updated.
      */
 	public void step(){
-		for(CT cell:presentCells){
-			cell.step(pastCells.get(cell.pos));
+		stepRange(0, presentCells.size());
+		swap();
+	}
+
+    /**
+     * Calls the step() method of the present cells with indices from (inclusive) to to (exclusive). Used by step(), 
+     * and by LayeredLattice to step several lattices in a single pass.
+     */
+	void stepRange(int from, int to){
+		for(int i=from;i<to; ++i){
+			presentCells.get(i).step(pastCells.get(i));
 		}
+	}
 
-		//and swap:
+    /**
+     * Swaps the present and past cells once all of them have been stepped, and notifies the listeners.
+     */
+	void swap(){
 		Buffer<CT> temp=pastCells; 
 		pastCells=presentCells;
 		presentCells=temp;
+		++generation;
+
+		for(StepListener listener: listeners){
+			listener.stepped();
+		}
+	}
+
+    /**
+     * It steps the lattice as a block cellular automaton: the past cells are partitioned in blocks of 2x2 (2D) or 
+     * 2x2x2 (3D) cells, offset by one cell in odd generations (the Margolus neighbourhood), and the rule transforms 
+     * each block in place, without using the present cells or swapping the buffers. The dimensions of the lattice 
+     * need to be even. With dual state cells, which have a single buffer, the rule should read the past slot and write 
+     * the present slot of the cells, as in step().
+     * @param rule          The BlockRule.
+     * @param parallel      If true, the blocks are processed in parallel (the rule should then not modify shared data).
+     */
+	public void stepBlocks(BlockRule<CT> rule, boolean parallel){
+		int gen=generation;
+		Buffer<CT> cells=pastCells;
+		BlockPartition.forEach(size, gen, parallel, () -> {
+			@SuppressWarnings("unchecked")
+			CT[] block=(CT[]) Array.newInstance(cellType, BlockPartition.blockSize(size));
+			return indices -> {
+				for(int k=0;k<block.length; ++k){
+					block[k]=cells.get(indices[k]);
+				}
+				rule.apply(block, gen);
+			};
+		});
+		++generation;
+
+		for(StepListener listener: listeners){
+			listener.stepped();
+		}
 	}
 
 }
\ No newline at end of file
@@ -27,10 +27,13 @@ import java.util.*;
 * This is the base abstract class from where all lattice cells inherit. It includes a basic constructor,
 * the genNeig() method, together with the essential abstract methods init() and step(), and an empty draw() 
 * method, that can be either over-ridden or left as it is, if there is no need for one. It also includes 
-* the essential fields of the cell, a position and its buffer. To allow the free implementation of 
-* constructors the initialise() method is used instead to set up these fields. If it is necessary to access these
-* at some point during initialisation, this can be done in the abstract method init(), which is called
-* after initialise() by the Lattice class.
+* the essential fields of the cell, its lattice and its index in the buffer it belongs to. Its position is derived 
+* from that index, and its buffer is reached through the lattice, so the cell does not need to keep either of them.
+* To allow the free implementation of constructors the initialise() method is used instead to set up these fields. 
+* If it is necessary to access these at some point during initialisation, this can be done in the abstract method 
+* init(), which is called after initialise() by the Lattice class.
+* If the Lattice is created with dual state cells, each cell holds both its past and present states (for example as 
+* two fields), and pastSlot() and presentSlot() tell which of them is which in the current generation.
 * LatticeCell implements the Curiously Recurring Template Pattern in order to traverse a collection (in this case 
 * an object of type Buffer) of its super-classes, and thus access their specific methods and fields.
 * The same design pattern is applied in other places in the lattice package.
@@ -40,21 +43,105 @@ import java.util.*;
 
 public abstract class LatticeCell <T extends LatticeCell<T> >{
 
-	protected Buffer<T> buffer; 
-	protected Vector pos;
+	Lattice<T> lattice; 
+	int index;
 
 
 	public LatticeCell(){}
 
     /**
      * Package private method called by lattice.Lattice, after constructor, but before calling the init() method
-     * @param  buffer       Buffer{@literal <}CT{@literal >}) the LatticeCell belongs to.
-     * @param  pos          The position (and dimensions) of the  LatticeCell.
+     * @param  lattice      Lattice{@literal <}CT{@literal >}) the LatticeCell belongs to.
+     * @param  index        The index of the LatticeCell in its buffer, from which its position is derived.
      */
-	void initialise(Buffer<T> buffer,Vector pos){ //package-private. used by lattices 
+	void initialise(Lattice<T> lattice,int index){ //package-private. used by lattices 
 
-		this.buffer=buffer;
-		this.pos=pos;
+		this.lattice=lattice;
+		this.index=index;
+	}
+
+    /**
+     * @return the buffer this LatticeCell belongs to, as found in its lattice.
+     */
+	Buffer<T> buffer(){
+		return lattice.bufferOf(this);
+	}
+
+    /**
+     * @return a new Vector with the position (and dimensions) of this LatticeCell.
+     */
+	protected Vector getPos(){
+		return lattice.size.foldInto(index);
+	}
+
+    /**
+     * @return the index of this LatticeCell in its buffer.
+     */
+	public int getIndex(){
+		return index;
+	}
+
+    /**
+     * @return the number of times the lattice this LatticeCell belongs to has been stepped.
+     */
+	protected int generation(){
+		return lattice.generation;
+	}
+
+    /**
+     * Used with dual state cells, which hold both past and present states (for example in two fields, 
+     * or in an array of two elements).
+     * @return 0 or 1, the slot from which the past state should be read in the current generation.
+     */
+	protected int pastSlot(){
+		return lattice.generation & 1;
+	}
+
+    /**
+     * Used with dual state cells. The present slot becomes the past slot after each step of the lattice.
+     * @return 0 or 1, the slot to which the present state should be written in the current generation.
+     */
+	protected int presentSlot(){
+		return pastSlot() ^ 1;
+	}
+
+    /**
+     * Marks this cell as changed in the current step, for an AggregatePyramid created to track changes, so only the 
+     * cells marked are read again. It should be called from step() (or from a Lattice.BlockRule) whenever the state 
+     * the pyramid aggregates changes.
+     */
+	protected void markChanged(){
+		for(ChangeSet changes: lattice.changeSets){
+			changes.mark(index);
+		}
+	}
+
+    /**
+     * Random numbers for stochastic rules, that depend only on the seed of the lattice, the generation, the index of 
+     * this cell and the draw (see CellRandom), so they are reproducible regardless of the order in which cells are stepped.
+     * The names avoid hiding the random() methods of PApplet, of which cells are usually inner classes.
+     * @param  draw     The number of the draw, to get different numbers in the same step (0, 1, 2...).
+     * @return a random float between 0 (inclusive) and 1 (exclusive).
+     */
+	protected float cellRandom(int draw){
+		return CellRandom.uniform(lattice.seed, lattice.generation, index, draw);
+	}
+
+    /**
+     * @param  draw     The number of the draw, to get different numbers in the same step (0, 1, 2...).
+     * @param  n        The upper bound (exclusive).
+     * @return a random int between 0 (inclusive) and n (exclusive), reproducible as cellRandom().
+     */
+	protected int cellRandomInt(int draw, int n){
+		return CellRandom.below(lattice.seed, lattice.generation, index, draw, n);
+	}
+
+    /**
+     * @param  draw     The number of the draw, to get different numbers in the same step (0, 1, 2...).
+     * @return 64 random bits, reproducible as cellRandom().
+     */
+	protected long cellRandomBits(int draw){
+		return CellRandom.bits(lattice.seed, lattice.generation, index, draw);
 	}
 
     /**
@@ -63,7 +150,7 @@ public abstract class LatticeCell <T extends LatticeCell<T> >{
      * @return the LatticeCell corresponding to the relative position given in np
      */
 	protected T getNeig(Vector np){
-		return buffer.get(pos.addition(np));
+		return buffer().getRelative(index, np);
 	}
 
     /**
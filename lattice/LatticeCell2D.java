@@ -59,19 +59,19 @@ public abstract class LatticeCell2D <T extends LatticeCell2D<T>> extends Lattice
      * @return an Iterable{@literal <}CT{@literal >} object over the diagonal neighbours (those touching at the corners)
      */
     protected Iterable<T> diagonalNeigs(){ 
-        return buffer.getIterableInstance(pos,DiagonalNeighbours);
+        return buffer().getIterableInstance(index,DiagonalNeighbours);
     }
     /**
      * @return an Iterable{@literal <}CT{@literal >} object over the vonNeumann neighbourhood (neighbours sharing faces).
      */
 	protected Iterable<T> vonNeumannNeigs(){
-		return buffer.getIterableInstance(pos,VonNeummmanNeighbours);
+		return buffer().getIterableInstance(index,VonNeummmanNeighbours);
 	}
     /**
      * @return an Iterable{@literal <}CT{@literal >} object over the Moore neighbourhood (all neighbours touching the LAtticeCell2D).
      */
 	protected Iterable<T> mooreNeigs(){	
-		return buffer.getIterableInstance(pos,MooreNeighbours);
+		return buffer().getIterableInstance(index,MooreNeighbours);
 	}
 
     /**
@@ -86,8 +86,8 @@ public abstract class LatticeCell2D <T extends LatticeCell2D<T>> extends Lattice
 	}
 
 
-	public int getX(){return pos.get(0);}
+	public int getX(){return lattice.size.foldCoord(index,0);}
 
-	public int getY(){return pos.get(1);}
+	public int getY(){return lattice.size.foldCoord(index,1);}
 }
 
@@ -112,28 +112,28 @@ public abstract class LatticeCell3D <T extends LatticeCell3D<T>> extends Lattice
      * @return an Iterable{@literal <}CT{@literal >} object over the 26 Moore neighbours (in 3D)
      */
     protected Iterable<T> mooreNeigs(){
-        return buffer.getIterableInstance(pos,MooreNeighbours);
+        return buffer().getIterableInstance(index,MooreNeighbours);
     }
 
     /**
      * @return an Iterable{@literal <}CT{@literal >} object over the vonNumann cells sharing faces with this LatticeCell3D
      */
     protected Iterable<T> vonNeumannNeigs(){
-        return buffer.getIterableInstance(pos,VonNeumannNeighbours);
+        return buffer().getIterableInstance(index,VonNeumannNeighbours);
     }
 
     /**
      * @return an Iterable{@literal <}CT{@literal >} object over the 12 cells sharing edges with this LatticeCell3D
      */
     protected Iterable<T> edgeNeigs(){
-        return buffer.getIterableInstance(pos,EdgeNeighbours);
+        return buffer().getIterableInstance(index,EdgeNeighbours);
     }
 
     /**
      * @return an Iterable{@literal <}CT{@literal >} object over the 8 cells sharing vertices with this LatticeCell3D
      */
     protected Iterable<T> cornerNeigs(){
-        return buffer.getIterableInstance(pos,CornerNeighbours);
+        return buffer().getIterableInstance(index,CornerNeighbours);
     }
 
     /**
@@ -149,8 +149,8 @@ public abstract class LatticeCell3D <T extends LatticeCell3D<T>> extends Lattice
         return getNeig(new Vector3D(offx,offy,offz));
     }
 
-    public int getX(){return pos.get(0);}
-    public int getY(){return pos.get(1);}
-    public int getZ(){return pos.get(2);}
+    public int getX(){return lattice.size.foldCoord(index,0);}
+    public int getY(){return lattice.size.foldCoord(index,1);}
+    public int getZ(){return lattice.size.foldCoord(index,2);}
 }
 
@@ -0,0 +1,340 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+* A bounded history of the generations of a Lattice, that allows to rewind it with seek(). Because the cells can be 
+* of any type, their states are encoded as ints by a StateCodec implemented for the specific cell class. 
+* The history stores a keyframe, with the states of all cells, every keyframeInterval generations, and in between 
+* only the cells that changed from the previous generation. Both are compressed: keyframes as runs of equal states 
+* and deltas as the gaps between changed cells, written as variable length integers. When the memory used goes 
+* over the given budget, the oldest keyframes are evicted together with the deltas that follow them.
+* Once created, the history is recorded by the Lattice after every step(). By default, recording a delta encodes 
+* every cell and compares it with its previous state, a full pass over the lattice in every step. If the history is 
+* created to track changes, a delta only encodes the cells marked with LatticeCell.markChanged() in that step, so 
+* its cost is proportional to the cells that changed; only keyframes encode every cell.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class LatticeHistory<CT extends LatticeCell<CT>> implements StepListener {
+
+    /**
+     * Translates the state of a cell to and from an int. It should include everything that step() reads from oldCell.
+     */
+	public interface StateCodec<CT> {
+	    /**
+	     * @param cell       The cell.
+	     * @return the state of the cell, encoded as an int.
+	     */
+		int encode(CT cell);
+
+	    /**
+	     * @param cell       The cell to restore.
+	     * @param state      The state, as returned by encode().
+	     */
+		void decode(CT cell, int state);
+	}
+
+	static class Frame {
+		final int generation;
+		final boolean key;
+		final byte[] data;
+
+		Frame(int generation, boolean key, byte[] data){
+			this.generation=generation;
+			this.key=key;
+			this.data=data;
+		}
+
+		long memory(){
+			return data.length + 32; //an estimate of the headers and fields of both objects
+		}
+	}
+
+	Lattice<CT> lattice;
+	StateCodec<CT> codec;
+	int keyframeInterval;
+	long memoryBudget;
+	long memoryUsed;
+
+	ArrayList<Frame> frames;
+	int[] current; //the states of the newest recorded generation, or of the last one seeked
+	byte[] scratch;
+	ChangeSet changes; //null if all cells are encoded in every delta
+	boolean restored; //if the cells were restored by another history, so current may not be the last frame
+
+    /**
+     * The constructor, for a history that encodes all cells in every generation.
+     * @param lattice           The Lattice to record.
+     * @param codec             The StateCodec for the cells of the lattice.
+     * @param keyframeInterval  Number of generations between keyframes.
+     * @param memoryBudget      Approximate maximum number of bytes used by the stored generations.
+     */
+	public LatticeHistory(Lattice<CT> lattice, StateCodec<CT> codec, int keyframeInterval, long memoryBudget){
+		this(lattice, codec, keyframeInterval, memoryBudget, false);
+	}
+
+    /**
+     * The constructor. It records the current generation of the lattice as the first keyframe, and attaches the 
+     * history to the lattice so it is recorded after every step().
+     * @param lattice           The Lattice to record.
+     * @param codec             The StateCodec for the cells of the lattice.
+     * @param keyframeInterval  Number of generations between keyframes.
+     * @param memoryBudget      Approximate maximum number of bytes used by the stored generations.
+     * @param trackChanges      If true, deltas only encode the cells marked with LatticeCell.markChanged(), which 
+     *                          should then be called whenever anything encoded by the codec changes.
+     */
+	public LatticeHistory(Lattice<CT> lattice, StateCodec<CT> codec, int keyframeInterval, long memoryBudget, 
+			boolean trackChanges){
+		if(keyframeInterval < 1){
+			throw new IllegalArgumentException("the keyframe interval of a LatticeHistory needs to be at least 1");
+		}
+		this.lattice=lattice;
+		this.codec=codec;
+		this.keyframeInterval=keyframeInterval;
+		this.memoryBudget=memoryBudget;
+		memoryUsed=0;
+		frames=new ArrayList<Frame>();
+		current=new int[lattice.pastCells.size()];
+		scratch=new byte[64];
+		restored=false;
+
+		lattice.listeners.add(this);
+		if(trackChanges){
+			changes=new ChangeSet(current.length);
+			lattice.addChangeSet(changes);
+		}
+		record();
+	}
+
+    /**
+     * Implementation of StepListener, called by the Lattice after every step(). It records the new generation.
+     */
+	public void stepped(){
+		record();
+	}
+
+    /**
+     * Implementation of StepListener, called when the cells are restored by another history. As the changes are not 
+     * marked, the next delta compares all cells with the last generation kept.
+     */
+	public void restored(){
+		restored=true;
+	}
+
+    /**
+     * Called by the Lattice after every step(). If the lattice was rewound with seek(), the generations after the 
+     * one seeked are discarded first.
+     */
+	void record(){
+		int generation=lattice.generation;
+		while(!frames.isEmpty() && frames.get(frames.size()-1).generation >= generation){
+			memoryUsed-=frames.remove(frames.size()-1).memory();
+		}
+		if(restored && !frames.isEmpty()){ //the delta is relative to the last frame kept, not to the cells restored
+			decodeFrames(frames.size()-1);
+		}
+
+		boolean key=frames.isEmpty() || generation % keyframeInterval == 0;
+		Buffer<CT> cells=lattice.pastCells;
+		int len=0;
+
+		if(key){
+			if(changes != null){
+				changes.clear();
+			}
+			for(int i=0;i<current.length; ++i){
+				current[i]=codec.encode(cells.get(i));
+			}
+			for(int i=0;i<current.length; ){
+				int run=1;
+				while(i+run < current.length && current[i+run] == current[i]){
+					++run;
+				}
+				len=putVarint(len, run);
+				len=putVarint(len, zigzag(current[i]));
+				i+=run;
+			}
+		}
+		else{
+			boolean all=changes == null || restored; //otherwise only the marked cells are encoded
+			if(all && changes != null){
+				changes.clear();
+			}
+			int prev=-1;
+			for(int i=all ? 0 : changes.next(0);i >= 0 && i < current.length; i=all ? i+1 : changes.next(i+1)){
+				int state=codec.encode(cells.get(i));
+				if(state != current[i]){
+					current[i]=state;
+					len=putVarint(len, i-prev-1);
+					len=putVarint(len, zigzag(state));
+					prev=i;
+				}
+			}
+		}
+
+		restored=false;
+
+		Frame frame=new Frame(generation, key, Arrays.copyOf(scratch, len));
+		frames.add(frame);
+		memoryUsed+=frame.memory();
+		evict();
+	}
+
+    /**
+     * Removes the oldest keyframes, and the deltas that depend on them, until the memory used is within budget. 
+     * The newest keyframe is never removed.
+     */
+	private void evict(){
+		while(memoryUsed > memoryBudget){
+			int next=1;
+			while(next < frames.size() && !frames.get(next).key){
+				++next;
+			}
+			if(next == frames.size()){
+				return;
+			}
+			for(int i=0;i<next; ++i){
+				memoryUsed-=frames.get(i).memory();
+			}
+			frames.subList(0, next).clear();
+		}
+	}
+
+    /**
+     * Restores the past cells of the lattice (those drawn, and read by the next step()) to the states they had in a 
+     * given generation. Later generations are kept until the lattice is stepped again, so it is possible to seek 
+     * forward as well.
+     * @param generation    A generation between getOldestGeneration() and getNewestGeneration().
+     */
+	public void seek(int generation){
+		if(frames.isEmpty() || generation < getOldestGeneration() || generation > getNewestGeneration()){
+			throw new IllegalArgumentException("generation " + generation + " is not in the LatticeHistory");
+		}
+		decodeFrames(generation - getOldestGeneration());
+
+		lattice.generation=generation; //before decoding, so dual state cells decode into the right slot
+		Buffer<CT> cells=lattice.pastCells;
+		for(int i=0;i<current.length; ++i){
+			codec.decode(cells.get(i), current[i]);
+		}
+
+		for(StepListener listener: lattice.listeners){ //so other data derived from the cells is updated
+			if(listener != this){
+				listener.restored();
+			}
+		}
+	}
+
+    /**
+     * @return the oldest generation that can be seeked.
+     */
+	public int getOldestGeneration(){
+		return frames.get(0).generation;
+	}
+
+    /**
+     * @return the newest generation that can be seeked.
+     */
+	public int getNewestGeneration(){
+		return frames.get(frames.size()-1).generation;
+	}
+
+    /**
+     * @return the approximate number of bytes used by the stored generations.
+     */
+	public long getMemoryUsed(){
+		return memoryUsed;
+	}
+
+    /**
+     * Decodes into current the states of a stored generation, from the keyframe before it.
+     */
+	private void decodeFrames(int last){
+		int first=last;
+		while(!frames.get(first).key){
+			--first;
+		}
+		decodeKeyframe(frames.get(first).data);
+		for(int i=first+1;i<=last; ++i){
+			applyDelta(frames.get(i).data);
+		}
+	}
+
+	private void decodeKeyframe(byte[] data){
+		int[] pos={0};
+		int i=0;
+		while(pos[0] < data.length){
+			int run=getVarint(data, pos);
+			int state=unzigzag(getVarint(data, pos));
+			Arrays.fill(current, i, i+run, state);
+			i+=run;
+		}
+	}
+
+	private void applyDelta(byte[] data){
+		int[] pos={0};
+		int i=-1;
+		while(pos[0] < data.length){
+			i+=getVarint(data, pos)+1;
+			current[i]=unzigzag(getVarint(data, pos));
+		}
+	}
+
+	private int putVarint(int len, int val){
+		if(len + 5 > scratch.length){
+			scratch=Arrays.copyOf(scratch, scratch.length*2);
+		}
+		while((val & ~0x7F) != 0){
+			scratch[len++]=(byte)((val & 0x7F) | 0x80);
+			val>>>=7;
+		}
+		scratch[len++]=(byte)val;
+		return len;
+	}
+
+	private static int getVarint(byte[] data, int[] pos){
+		int val=0;
+		int shift=0;
+		byte b;
+		do{
+			b=data[pos[0]++];
+			val|=(b & 0x7F) << shift;
+			shift+=7;
+		}while((b & 0x80) != 0);
+		return val;
+	}
+
+	private static int zigzag(int val){
+		return (val << 1) ^ (val >> 31);
+	}
+
+	private static int unzigzag(int val){
+		return (val >>> 1) ^ -(val & 1);
+	}
+}
@@ -0,0 +1,536 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+* A set of coupled layers on the same grid, such as chemical concentrations, agent occupancy and terrain, that share 
+* one geometry, one neighbourhood and one step scheduler. A layer can be a Lattice of 
+* any cell type (of the same dimensions), a layer of ints or floats stepped by an IntRule or FloatRule, or a layer 
+* of few states stored in palette-compressed PaletteStores and stepped by a PaletteRule. Each layer 
+* is stepped every given number of generations (its rate), and reads the past states of the other layers at the same 
+* linear index, or at the indices of its neighbours given by neighbour().
+* The neighbours are not stored for every site: each offset of the neighbourhood has a linear delta, which is added to 
+* the index of the sites at least the radius of the neighbourhood away from the boundaries (see isInterior() and 
+* delta()), and only the sites near the boundaries are wrapped around with the arithmetic of Vector. The Lattice 
+* layers use the same deltas for the neighbourhoods of their cells (mooreNeigs(), getNeig() and the rest) whenever 
+* their offsets are part of the neighbourhood of the LayeredLattice.
+* All layers due in a generation are stepped in a single pass over chunks of CHUNK consecutive sites, so the data of 
+* all layers for the same sites is used together; the chunks can be processed in parallel. All layers are swapped at 
+* the end of the pass.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class LayeredLattice {
+
+    /**
+     * The number of consecutive sites stepped together. It is a power of two, so the chunks of a PaletteStore 
+     * of at most this size never span two of them, and can be written from different threads.
+     */
+	public static final int CHUNK=1024;
+
+	interface Layer {
+		void stepRange(int from, int to);
+		void swap();
+	}
+
+    /**
+     * The rule of an IntLayer. It should write the new values of the sites from (inclusive) to to (exclusive) into present.
+     */
+	public interface IntRule {
+		void step(int[] past, int[] present, int from, int to);
+	}
+
+    /**
+     * The rule of a FloatLayer. It should write the new values of the sites from (inclusive) to to (exclusive) into present.
+     */
+	public interface FloatRule {
+		void step(float[] past, float[] present, int from, int to);
+	}
+
+    /**
+     * The rule of a PaletteLayer. It should set the new states of the sites from (inclusive) to to (exclusive) in present, 
+     * and no others.
+     */
+	public interface PaletteRule<S> {
+		void step(PaletteStore<S> past, PaletteStore<S> present, int from, int to);
+	}
+
+    /**
+     * A layer of few distinct states, double buffered in two PaletteStores, without any object per site.
+     */
+	public static class PaletteLayer<S> implements Layer {
+		PaletteStore<S> past;
+		PaletteStore<S> present;
+		final PaletteRule<S> rule;
+
+		PaletteLayer(int size, int chunkSize, S initial, PaletteRule<S> rule){
+			past=new PaletteStore<S>(size, chunkSize, initial);
+			present=new PaletteStore<S>(size, chunkSize, initial);
+			this.rule=rule;
+		}
+
+		public void stepRange(int from, int to){
+			rule.step(past, present, from, to);
+		}
+
+		public void swap(){
+			PaletteStore<S> temp=past;
+			past=present;
+			present=temp;
+		}
+
+	    /**
+	     * @return the store with the current states of the layer. It is swapped in every step of the layer, so it should not be kept.
+	     */
+		public PaletteStore<S> values(){
+			return past;
+		}
+	}
+
+    /**
+     * A layer of int values, double buffered.
+     */
+	public static class IntLayer implements Layer {
+		int[] past;
+		int[] present;
+		final IntRule rule;
+
+		IntLayer(int size, IntRule rule){
+			past=new int[size];
+			present=new int[size];
+			this.rule=rule;
+		}
+
+		public void stepRange(int from, int to){
+			rule.step(past, present, from, to);
+		}
+
+		public void swap(){
+			int[] temp=past;
+			past=present;
+			present=temp;
+		}
+
+	    /**
+	     * @return the array with the current values of the layer. It is swapped in every step of the layer, so it should not be kept.
+	     */
+		public int[] values(){
+			return past;
+		}
+	}
+
+    /**
+     * A layer of float values, double buffered.
+     */
+	public static class FloatLayer implements Layer {
+		float[] past;
+		float[] present;
+		final FloatRule rule;
+
+		FloatLayer(int size, FloatRule rule){
+			past=new float[size];
+			present=new float[size];
+			this.rule=rule;
+		}
+
+		public void stepRange(int from, int to){
+			rule.step(past, present, from, to);
+		}
+
+		public void swap(){
+			float[] temp=past;
+			past=present;
+			present=temp;
+		}
+
+	    /**
+	     * @return the array with the current values of the layer. It is swapped in every step of the layer, so it should not be kept.
+	     */
+		public float[] values(){
+			return past;
+		}
+	}
+
+    /**
+     * The deltas for the offsets of the last neighbourhood looked up (see deltas()).
+     */
+	static class DeltaCache {
+		final Vector[] offsets;
+		final int[] deltas;
+
+		DeltaCache(Vector[] offsets, int[] deltas){
+			this.offsets=offsets;
+			this.deltas=deltas;
+		}
+	}
+
+	Vector size;
+	boolean threeD;
+	Vector[] offsets;
+	int[] deltas; //the linear delta of each offset, for interior sites
+	int radius;
+	int[] numberOf; //the number of the neighbour of each offset within radius, or -1
+	DeltaCache lastDeltas;
+	ArrayList<Layer> layers;
+	ArrayList<Integer> rates;
+	int generation;
+	boolean parallel;
+
+    /**
+     * Constructor for 2D layered lattices, with the Moore neighbourhood in the neighbourhood.
+     * @param w             Width of the lattice.
+     * @param h             Height of the lattice.
+     */
+	public LayeredLattice(int w, int h){
+		this(w, h, new int[]{-1, 0, 1,-1, 1,-1, 0, 1}, new int[]{-1,-1,-1, 0, 0, 1, 1, 1});
+	}
+
+    /**
+     * Constructor for 2D layered lattices.
+     * @param w             Width of the lattice.
+     * @param h             Height of the lattice.
+     * @param dx            The x offsets of the neighbours in the neighbourhood.
+     * @param dy            The y offsets of the neighbours in the neighbourhood.
+     */
+	public LayeredLattice(int w, int h, int[] dx, int[] dy){
+		this(new Vector2D(w,h), offsets(dx, dy, null));
+	}
+
+    /**
+     * Constructor for 3D layered lattices, with the Moore neighbourhood (26 neighbours) in the neighbourhood.
+     * @param w             Width of the lattice.
+     * @param h             Height of the lattice.
+     * @param d             Depth of the lattice.
+     */
+	public LayeredLattice(int w, int h, int d){
+		this(new Vector3D(w,h,d), moore3D());
+	}
+
+    /**
+     * Constructor for 3D layered lattices.
+     * @param w             Width of the lattice.
+     * @param h             Height of the lattice.
+     * @param d             Depth of the lattice.
+     * @param dx            The x offsets of the neighbours in the neighbourhood.
+     * @param dy            The y offsets of the neighbours in the neighbourhood.
+     * @param dz            The z offsets of the neighbours in the neighbourhood.
+     */
+	public LayeredLattice(int w, int h, int d, int[] dx, int[] dy, int[] dz){
+		this(new Vector3D(w,h,d), offsets(dx, dy, dz));
+	}
+
+	LayeredLattice(Vector size, Vector[] offsets){
+		this.size=size;
+		threeD=size instanceof Vector3D;
+		this.offsets=offsets;
+		int dims=threeD ? 3 : 2;
+		int w=size.get(0);
+		int h=size.get(1);
+
+		radius=0;
+		deltas=new int[offsets.length];
+		for(int k=0;k<offsets.length; ++k){
+			for(int c=0;c<dims; ++c){
+				radius=Math.max(radius, Math.abs(offsets[k].get(c)));
+			}
+			deltas[k]=offsets[k].get(0) + offsets[k].get(1)*w + (threeD ? offsets[k].get(2)*w*h : 0);
+		}
+		int side=2*radius + 1;
+		numberOf=new int[threeD ? side*side*side : side*side];
+		Arrays.fill(numberOf, -1);
+		for(int k=offsets.length-1;k>=0; --k){
+			numberOf[denseIndex(offsets[k])]=k;
+		}
+		layers=new ArrayList<Layer>();
+		rates=new ArrayList<Integer>();
+		generation=0;
+		parallel=false;
+	}
+
+	private static Vector[] moore3D(){
+		Vector[] offsets=new Vector[26];
+		int k=0;
+		for(int z=-1;z<=1; ++z){
+			for(int y=-1;y<=1; ++y){
+				for(int x=-1;x<=1; ++x){
+					if(x != 0 || y != 0 || z != 0){
+						offsets[k++]=new Vector3D(x,y,z);
+					}
+				}
+			}
+		}
+		return offsets;
+	}
+
+	private int denseIndex(Vector offset){
+		int side=2*radius + 1;
+		int i=(offset.get(1) + radius)*side + offset.get(0) + radius;
+		return threeD ? (offset.get(2) + radius)*side*side + i : i;
+	}
+
+    /**
+     * @param offset    A relative position.
+     * @return the number of the neighbour with that offset, or -1 if it is not in the neighbourhood.
+     */
+	int number(Vector offset){
+		int x=offset.get(0);
+		int y=offset.get(1);
+		int z=threeD ? offset.get(2) : 0;
+		if(x < -radius || x > radius || y < -radius || y > radius || z < -radius || z > radius){
+			return -1;
+		}
+		return numberOf[denseIndex(offset)];
+	}
+
+    /**
+     * @param offsets   The offsets of a neighbourhood, such as those used by LatticeCell2D.mooreNeigs().
+     * @return the delta of each of the offsets, or null if any of them is not in the neighbourhood. 
+     * The result for the last neighbourhood is cached, as cells usually iterate over the same one.
+     */
+	int[] deltas(Vector[] offsets){
+		DeltaCache cache=lastDeltas;
+		if(cache != null && cache.offsets == offsets){
+			return cache.deltas;
+		}
+		int[] result=new int[offsets.length];
+		for(int k=0;k<offsets.length; ++k){
+			int number=number(offsets[k]);
+			if(number < 0){
+				result=null;
+				break;
+			}
+			result[k]=deltas[number];
+		}
+		lastDeltas=new DeltaCache(offsets, result);
+		return result;
+	}
+
+	private static Vector[] offsets(int[] dx, int[] dy, int[] dz){
+		if(dx.length != dy.length || (dz != null && dz.length != dx.length)){
+			throw new IllegalArgumentException("the offsets of the neighbours of a LayeredLattice need to have the same length");
+		}
+		Vector[] offsets=new Vector[dx.length];
+		for(int k=0;k<dx.length; ++k){
+			offsets[k]= dz == null ? new Vector2D(dx[k],dy[k]) : new Vector3D(dx[k],dy[k],dz[k]);
+		}
+		return offsets;
+	}
+
+    /**
+     * Adds a Lattice as a layer, and attaches the neighbourhood to it, so its cells find their neighbours with its deltas. 
+     * They can also read the other layers through the index of the cell and neighbour().
+     * @param lattice       A Lattice of the same dimensions.
+     * @param rate          The layer is stepped once every rate generations.
+     */
+	public <CT extends LatticeCell<CT>> void addLayer(Lattice<CT> lattice, int rate){
+		if(lattice.size.getClass() != size.getClass()){
+			throw new IllegalArgumentException("the layers of a LayeredLattice need to have the same number of dimensions");
+		}
+		for(int c=0;c<(threeD ? 3 : 2); ++c){
+			if(lattice.size.get(c) != size.get(c)){
+				throw new IllegalArgumentException("the layers of a LayeredLattice need to have the same dimensions");
+			}
+		}
+		lattice.pastCells.layers=this;
+		lattice.presentCells.layers=this;
+		addLayer(new Layer(){
+			public void stepRange(int from, int to){
+				lattice.stepRange(from, to);
+			}
+			public void swap(){
+				lattice.swap();
+			}
+		}, rate);
+	}
+
+    /**
+     * Adds a layer of ints.
+     * @param rule          The rule of the layer.
+     * @param rate          The layer is stepped once every rate generations.
+     * @return the new layer.
+     */
+	public IntLayer addIntLayer(IntRule rule, int rate){
+		IntLayer layer=new IntLayer(size.coverSize(), rule);
+		addLayer(layer, rate);
+		return layer;
+	}
+
+    /**
+     * Adds a layer of floats.
+     * @param rule          The rule of the layer.
+     * @param rate          The layer is stepped once every rate generations.
+     * @return the new layer.
+     */
+	public FloatLayer addFloatLayer(FloatRule rule, int rate){
+		FloatLayer layer=new FloatLayer(size.coverSize(), rule);
+		addLayer(layer, rate);
+		return layer;
+	}
+
+    /**
+     * Adds a layer of few distinct states, with a palette for every CHUNK sites.
+     * @param rule          The rule of the layer.
+     * @param initial       The initial state of all sites.
+     * @param rate          The layer is stepped once every rate generations.
+     * @return the new layer.
+     */
+	public <S> PaletteLayer<S> addPaletteLayer(PaletteRule<S> rule, S initial, int rate){
+		return addPaletteLayer(rule, initial, CHUNK, rate);
+	}
+
+    /**
+     * Adds a layer of few distinct states.
+     * @param rule          The rule of the layer.
+     * @param initial       The initial state of all sites.
+     * @param chunkSize     Number of sites with the same palette, at most CHUNK (rounded up to a power of two).
+     * @param rate          The layer is stepped once every rate generations.
+     * @return the new layer.
+     */
+	public <S> PaletteLayer<S> addPaletteLayer(PaletteRule<S> rule, S initial, int chunkSize, int rate){
+		if(chunkSize > CHUNK){
+			throw new IllegalArgumentException("the chunks of a PaletteLayer can have at most " + CHUNK + " sites");
+		}
+		PaletteLayer<S> layer=new PaletteLayer<S>(size.coverSize(), chunkSize, initial, rule);
+		addLayer(layer, rate);
+		return layer;
+	}
+
+	private void addLayer(Layer layer, int rate){
+		if(rate < 1){
+			throw new IllegalArgumentException("the rate of a layer needs to be at least 1");
+		}
+		layers.add(layer);
+		rates.add(rate);
+	}
+
+    /**
+     * @param parallel      If true, step() processes the chunks of sites in parallel (the rules should then not modify shared data).
+     */
+	public void setParallel(boolean parallel){
+		this.parallel=parallel;
+	}
+
+    /**
+     * It steps all the layers due in this generation, in a single pass over chunks of sites, and then swaps them.
+     */
+	public void step(){
+		ArrayList<Layer> due=new ArrayList<Layer>();
+		for(int l=0;l<layers.size(); ++l){
+			if(generation % rates.get(l) == 0){
+				due.add(layers.get(l));
+			}
+		}
+
+		int n=size.coverSize();
+		IntStream chunks=IntStream.range(0, (n + CHUNK - 1) / CHUNK);
+		(parallel ? chunks.parallel() : chunks).forEach(c -> {
+			int from=c*CHUNK;
+			int to=Math.min(n, from+CHUNK);
+			for(Layer layer: due){
+				layer.stepRange(from, to);
+			}
+		});
+
+		for(Layer layer: due){
+			layer.swap();
+		}
+		++generation;
+	}
+
+    /**
+     * @param site      The linear index of a site.
+     * @return true if the site is at least the radius of the neighbourhood away from all boundaries, so the index of 
+     * its neighbour k is site + delta(k).
+     */
+	public boolean isInterior(int site){
+		int w=size.get(0);
+		int h=size.get(1);
+		int x=site % w;
+		int y=(site / w) % h;
+		if(x < radius || x >= w-radius || y < radius || y >= h-radius){
+			return false;
+		}
+		int z=site / (w*h);
+		return !threeD || (z >= radius && z < size.get(2)-radius);
+	}
+
+    /**
+     * @param k         The number of the neighbour, in the order given to the constructor.
+     * @return the difference between the linear index of neighbour k and that of an interior site.
+     */
+	public int delta(int k){
+		return deltas[k];
+	}
+
+    /**
+     * @param site      The linear index of a site.
+     * @param k         The number of the neighbour, in the order given to the constructor.
+     * @return the linear index of the neighbour (wrapped around the lattice).
+     */
+	public int neighbour(int site, int k){
+		return isInterior(site) ? site + deltas[k] : size.offsetIndex(site, offsets[k]);
+	}
+
+    /**
+     * Finds the linear indices of all the neighbours of a site, checking only once whether it is interior.
+     * @param site      The linear index of a site.
+     * @param indices   An array of at least getNeighbourCount() ints, where the indices are written in the order 
+     *                  given to the constructor.
+     */
+	public void neighbours(int site, int[] indices){
+		if(isInterior(site)){
+			for(int k=0;k<deltas.length; ++k){
+				indices[k]=site + deltas[k];
+			}
+		}
+		else{
+			for(int k=0;k<deltas.length; ++k){
+				indices[k]=size.offsetIndex(site, offsets[k]);
+			}
+		}
+	}
+
+	public int getNeighbourCount(){
+		return deltas.length;
+	}
+
+    /**
+     * @return the number of sites of each layer.
+     */
+	public int size(){
+		return size.coverSize();
+	}
+
+    /**
+     * @return the number of times step() has been called.
+     */
+	public int getGeneration(){
+		return generation;
+	}
+}
@@ -27,7 +27,9 @@ import java.util.Iterator;
 /**
 * Iterator that allows to access the neighbours of a cell. Given an array with the coordinates for each 
 * neighbour defining a neighbourhood of a cell, it iterates through all of them. This allows to use simple 
-* for-each or enhanced for statements to iterate through the neighbours.
+* for-each or enhanced for statements to iterate through the neighbours. If the lattice is a layer of a LayeredLattice 
+* whose neighbourhood includes all the neighbours, the indices of the neighbours of interior cells are found by adding 
+* its deltas, instead of wrapping around each offset.
 * @author Pablo Miranda Carranza
 */
 
@@ -35,18 +37,20 @@ public class NeighborhoodIterator<CT extends LatticeCell<CT> > implements Iterat
 
 	int current;
 	Buffer<CT> buffer;
-	Vector pos;
+	int index;
 	final Vector[] neighbours;
+	final int[] deltas; //the deltas of the neighbours, if the cell is interior in a LayeredLattice, or null
     /**
      * @param buffer
-     * @param pos              the coordinates of the LatticeCell for which the neighbourhood is defined
+     * @param index            the index in the buffer of the LatticeCell for which the neighbourhood is defined
      * @param neighbours       an array of neighbour coordinates in the form of implementations of lattice.Vector 
      */
-	public NeighborhoodIterator (Buffer<CT> buffer, Vector pos, Vector[] neighbours){
+	public NeighborhoodIterator (Buffer<CT> buffer, int index, Vector[] neighbours){
 		current=0;
 		this.buffer=buffer;
-		this.pos=pos;
+		this.index=index;
 		this.neighbours=neighbours;	
+		deltas=buffer.neighbourDeltas(index, neighbours);
 	}
     /**
      * Implementation of next() method from java.util.Iterator.
@@ -54,7 +58,7 @@ public class NeighborhoodIterator<CT extends LatticeCell<CT> > implements Iterat
      */
 	public CT next() {
 		int prev=current++;
-		return buffer.get(pos.addition(neighbours[prev]));
+		return deltas != null ? buffer.get(index + deltas[prev]) : buffer.getRelative(index, neighbours[prev]);
 	}
 
     /**
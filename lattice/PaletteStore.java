@@ -0,0 +1,222 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+* A compressed store for the states of the cells of a lattice with few distinct states. The cells are divided in chunks, 
+* and each chunk keeps a palette of the distinct states found in it, and the index in that palette of the state of each 
+* cell, packed in 1, 2, 4 or 8 bits per cell (up to 32 if the palette keeps growing). When a new state does not fit 
+* in the current number of bits, the chunk is re-packed with twice as many. A single chunk covering the whole lattice 
+* gives a per-lattice palette.
+* The states can be of any type with consistent equals() and hashCode() (such as Integer, String or an enum), and are 
+* read and written by the linear index of the cell.
+* The memory is only saved if the states are not also kept in cell objects: a Lattice still allocates a LatticeCell 
+* per site, so keeping their states here instead of in a field saves nothing. Lattices of few states that need to 
+* fit in memory should be stepped as a PaletteLayer of a LayeredLattice. Neither the layer nor the LayeredLattice 
+* keep anything per site other than the two stores of the layer (neighbours are found from one delta per offset of 
+* the neighbourhood, see LayeredLattice.neighbour()), so with few states the whole lattice takes one or two bits per site 
+* in each store, plus the palettes.
+* Reading is safe from several threads, and so is writing as long as no two threads write into the same chunk, 
+* as writing may re-pack it.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class PaletteStore<S> {
+
+	class Chunk {
+		ArrayList<S> palette;
+		HashMap<S,Integer> lookup;
+		int bits;
+		int perWordShift; //log2 of the number of indices per long
+		long[] data;
+		int length;
+
+		Chunk(int length, S initial){
+			this.length=length;
+			palette=new ArrayList<S>();
+			lookup=new HashMap<S,Integer>();
+			palette.add(initial);
+			lookup.put(initial, 0);
+			pack(1);
+		}
+
+		void pack(int bits){
+			long[] old=data;
+			int oldBits=this.bits;
+			int oldShift=perWordShift;
+			this.bits=bits;
+			perWordShift=6 - Integer.numberOfTrailingZeros(bits);
+			data=new long[((length-1) >> perWordShift) + 1];
+			if(old != null){
+				for(int i=0;i<length; ++i){
+					write(i, read(old, oldBits, oldShift, i));
+				}
+			}
+		}
+
+		int read(long[] words, int bits, int shift, int i){
+			long mask=bits == 64 ? -1L : (1L << bits) - 1;
+			return (int)((words[i >>> shift] >>> ((i & ((1 << shift) - 1)) * bits)) & mask);
+		}
+
+		int read(int i){
+			return read(data, bits, perWordShift, i);
+		}
+
+		void write(int i, int p){
+			long mask=(1L << bits) - 1;
+			int word=i >>> perWordShift;
+			int offset=(i & ((1 << perWordShift) - 1)) * bits;
+			data[word]=(data[word] & ~(mask << offset)) | ((long)p << offset);
+		}
+
+		int paletteIndex(S state){
+			Integer p=lookup.get(state);
+			if(p != null){
+				return p;
+			}
+			int n=palette.size();
+			if(n == 1L << bits){
+				pack(bits*2);
+			}
+			palette.add(state);
+			lookup.put(state, n);
+			return n;
+		}
+	}
+
+    /**
+     * The largest number of cells in a chunk.
+     */
+	public static final int MAX_CHUNK=1 << 30;
+
+	final int size;
+	final int chunkShift;
+	final ArrayList<Chunk> chunks;
+
+    /**
+     * Constructor.
+     * @param size          Number of cells.
+     * @param chunkSize     Number of cells in each chunk, rounded up to a power of two, at most MAX_CHUNK.
+     * @param initial       The initial state of all cells.
+     */
+	public PaletteStore(int size, int chunkSize, S initial){
+		if(size < 1 || chunkSize < 1){
+			throw new IllegalArgumentException("the sizes of a PaletteStore need to be positive");
+		}
+		if(chunkSize > MAX_CHUNK){
+			throw new IllegalArgumentException("the chunks of a PaletteStore can have at most " + MAX_CHUNK + " cells");
+		}
+		this.size=size;
+		chunkShift=32 - Integer.numberOfLeadingZeros(chunkSize - 1);
+		chunks=new ArrayList<Chunk>();
+		for(long from=0;from<size; from+=1 << chunkShift){
+			chunks.add(new Chunk((int)Math.min(1 << chunkShift, size-from), initial));
+		}
+	}
+
+    /**
+     * Constructor for a store with a single palette (or one for every MAX_CHUNK cells, for larger sizes).
+     * @param size          Number of cells.
+     * @param initial       The initial state of all cells.
+     */
+	public PaletteStore(int size, S initial){
+		this(size, Math.min(size, MAX_CHUNK), initial);
+	}
+
+    /**
+     * @param index     The linear index of the cell.
+     * @return the state of the cell.
+     */
+	public S get(int index){
+		Chunk chunk=chunks.get(index >>> chunkShift);
+		return chunk.palette.get(chunk.read(index & ((1 << chunkShift) - 1)));
+	}
+
+    /**
+     * Sets the state of a cell, adding it to the palette of its chunk (and re-packing it) if it is a new state.
+     * @param index     The linear index of the cell.
+     * @param state     The new state of the cell.
+     */
+	public void set(int index, S state){
+		Chunk chunk=chunks.get(index >>> chunkShift);
+		chunk.write(index & ((1 << chunkShift) - 1), chunk.paletteIndex(state));
+	}
+
+    /**
+     * Removes from the palettes the states no longer used by any cell, and re-packs the chunks with fewer bits if possible.
+     */
+	public void compact(){
+		for(Chunk chunk: chunks){
+			int[] remap=new int[chunk.palette.size()];
+			for(int i=0;i<chunk.length; ++i){
+				remap[chunk.read(i)]=1;
+			}
+			ArrayList<S> palette=new ArrayList<S>();
+			for(int p=0;p<remap.length; ++p){
+				if(remap[p] != 0){
+					remap[p]=palette.size();
+					palette.add(chunk.palette.get(p));
+				}
+			}
+			for(int i=0;i<chunk.length; ++i){
+				chunk.write(i, remap[chunk.read(i)]);
+			}
+			chunk.palette=palette;
+			chunk.lookup.clear();
+			for(int p=0;p<palette.size(); ++p){
+				chunk.lookup.put(palette.get(p), p);
+			}
+			int bits=1;
+			while(1L << bits < palette.size()){
+				bits*=2;
+			}
+			if(bits < chunk.bits){
+				chunk.pack(bits);
+			}
+		}
+	}
+
+    /**
+     * @return the number of cells in the store.
+     */
+	public int size(){
+		return size;
+	}
+
+    /**
+     * @return the number of bytes used by the packed indices of all chunks (without the palettes).
+     */
+	public long getPackedBytes(){
+		long bytes=0;
+		for(Chunk chunk: chunks){
+			bytes+=chunk.data.length*8L;
+		}
+		return bytes;
+	}
+}
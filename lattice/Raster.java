@@ -0,0 +1,259 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+import java.util.stream.IntStream;
+
+/**
+* Bulk rendering of lattices into an array of ARGB pixels (for example the pixels array of a PImage, after calling 
+* loadPixels() on it, and before calling updatePixels()), as an alternative to Lattice.draw(), which calls the draw() 
+* method of each cell. The pixel array has the width and height of the lattice, one pixel per cell, and is written 
+* in a single pass, optionally in parallel by rows. The colour of each cell is given by a Colour function for 
+* lattices of LatticeCell objects, or by a palette for IntField and FloatField. 3D lattices are rendered by z-slices, 
+* either one slice or several tiled in a grid. Zoomed-out views can be rendered from a level of an AggregatePyramid, 
+* with one pixel per block.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class Raster {
+
+    /**
+     * Maps the state of a cell to a colour. If rendering in parallel, it should not modify any shared data.
+     */
+	public interface Colour<CT> {
+	    /**
+	     * @param cell       A past cell of the lattice.
+	     * @return the ARGB colour of the cell, as returned by color() in Processing.
+	     */
+		int of(CT cell);
+	}
+
+    /**
+     * Maps an aggregated value of an AggregatePyramid to a colour.
+     */
+	public interface ValueColour {
+		int of(long value);
+	}
+
+	private Raster(){}
+
+    /**
+     * Renders a 2D lattice, or the first z-slice of a 3D lattice.
+     * @param lattice       The lattice.
+     * @param colour        The colour of each cell.
+     * @param pixels        An array of at least width * height pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static <CT extends LatticeCell<CT>> void render(Lattice<CT> lattice, Colour<CT> colour, int[] pixels, boolean parallel){
+		renderSlice(lattice, 0, colour, pixels, 0, lattice.size.get(0), parallel);
+	}
+
+    /**
+     * Renders one z-slice of a 3D lattice.
+     * @param lattice       The lattice.
+     * @param z             The slice.
+     * @param colour        The colour of each cell.
+     * @param pixels        An array of at least width * height pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static <CT extends LatticeCell<CT>> void render(Lattice<CT> lattice, int z, Colour<CT> colour, int[] pixels, boolean parallel){
+		renderSlice(lattice, z, colour, pixels, 0, lattice.size.get(0), parallel);
+	}
+
+    /**
+     * Renders several z-slices of a 3D lattice, tiled left to right and top to bottom in a grid of the given number 
+     * of columns. The pixel array is then (width * columns) pixels wide.
+     * @param lattice       The lattice.
+     * @param slices        The z-slices to render.
+     * @param columns       Number of slices in each row of the grid.
+     * @param colour        The colour of each cell.
+     * @param pixels        An array of at least (width * columns) * (height * rows) pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static <CT extends LatticeCell<CT>> void render(Lattice<CT> lattice, int[] slices, int columns, Colour<CT> colour, int[] pixels, boolean parallel){
+		int w=lattice.size.get(0);
+		int h=lattice.size.get(1);
+		int stride=w*columns;
+		for(int i=0;i<slices.length; ++i){
+			renderSlice(lattice, slices[i], colour, pixels, (i / columns)*h*stride + (i % columns)*w, stride, parallel);
+		}
+	}
+
+	private static <CT extends LatticeCell<CT>> void renderSlice(Lattice<CT> lattice, int z, Colour<CT> colour, int[] pixels, int offset, int stride, boolean parallel){
+		int w=lattice.size.get(0);
+		int h=lattice.size.get(1);
+		checkSize(pixels, offset, stride, w, h);
+		Buffer<CT> cells=lattice.pastCells;
+		int from=sliceStart(lattice.size, z);
+		rows(h, parallel, y -> {
+			int src=from + y*w;
+			int dst=offset + y*stride;
+			for(int x=0;x<w; ++x){
+				pixels[dst+x]=colour.of(cells.get(src+x));
+			}
+		});
+	}
+
+    /**
+     * Renders a 2D IntField, or the first z-slice of a 3D one, using its states as indices into a palette.
+     * @param field         The field.
+     * @param palette       The ARGB colour of each state.
+     * @param pixels        An array of at least width * height pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static void render(IntField field, int[] palette, int[] pixels, boolean parallel){
+		render(field, 0, palette, pixels, parallel);
+	}
+
+    /**
+     * Renders one z-slice of a 3D IntField, using its states as indices into a palette.
+     * @param field         The field.
+     * @param z             The slice.
+     * @param palette       The ARGB colour of each state.
+     * @param pixels        An array of at least width * height pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static void render(IntField field, int z, int[] palette, int[] pixels, boolean parallel){
+		int w=field.w;
+		checkSize(pixels, 0, w, w, field.h);
+		int[] values=field.past;
+		int from=sliceStart(field.size, z);
+		rows(field.h, parallel, y -> {
+			int src=from + y*w;
+			int dst=y*w;
+			for(int x=0;x<w; ++x){
+				pixels[dst+x]=palette[values[src+x]];
+			}
+		});
+	}
+
+    /**
+     * Renders a 2D FloatField, or the first z-slice of a 3D one, mapping the values of a channel between min and max 
+     * to the entries of a palette (values out of that range are clamped).
+     * @param field         The field.
+     * @param channel       The channel to render.
+     * @param min           The value rendered with the first colour of the palette.
+     * @param max           The value rendered with the last colour of the palette.
+     * @param palette       The ARGB colours, from min to max.
+     * @param pixels        An array of at least width * height pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static void render(FloatField field, int channel, float min, float max, int[] palette, int[] pixels, boolean parallel){
+		render(field, channel, 0, min, max, palette, pixels, parallel);
+	}
+
+    /**
+     * Renders one z-slice of a 3D FloatField, mapping the values of a channel between min and max to the entries of 
+     * a palette (values out of that range are clamped).
+     * @param field         The field.
+     * @param channel       The channel to render.
+     * @param z             The slice.
+     * @param min           The value rendered with the first colour of the palette.
+     * @param max           The value rendered with the last colour of the palette.
+     * @param palette       The ARGB colours, from min to max.
+     * @param pixels        An array of at least width * height pixels.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static void render(FloatField field, int channel, int z, float min, float max, int[] palette, int[] pixels, boolean parallel){
+		int w=field.w;
+		checkSize(pixels, 0, w, w, field.h);
+		float[] values=field.past[channel];
+		int from=sliceStart(field.size, z);
+		int last=palette.length-1;
+		float scale=last / (max-min);
+		rows(field.h, parallel, y -> {
+			int src=from + y*w;
+			int dst=y*w;
+			for(int x=0;x<w; ++x){
+				int i=(int)((values[src+x]-min)*scale);
+				pixels[dst+x]=palette[i < 0 ? 0 : i > last ? last : i];
+			}
+		});
+	}
+
+    /**
+     * Renders one level of an AggregatePyramid (its first z-slice, for 3D lattices), one pixel per block.
+     * @param pyramid       The pyramid.
+     * @param level         The level.
+     * @param colour        The colour of each aggregated value.
+     * @param pixels        An array of at least the width * height of the level.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static void render(AggregatePyramid<?> pyramid, int level, ValueColour colour, int[] pixels, boolean parallel){
+		render(pyramid, level, 0, colour, pixels, parallel);
+	}
+
+    /**
+     * Renders one z-slice of one level of an AggregatePyramid, one pixel per block.
+     * @param pyramid       The pyramid.
+     * @param level         The level.
+     * @param z             The slice, in the coordinates of the level.
+     * @param colour        The colour of each aggregated value.
+     * @param pixels        An array of at least the width * height of the level.
+     * @param parallel      If true, the rows are rendered in parallel.
+     */
+	public static void render(AggregatePyramid<?> pyramid, int level, int z, ValueColour colour, int[] pixels, boolean parallel){
+		int w=pyramid.getWidth(level);
+		int h=pyramid.getHeight(level);
+		checkSize(pixels, 0, w, w, h);
+		long[] values=pyramid.values(level);
+		int from=Vector.wrapVal(z, pyramid.getDepth(level))*w*h;
+		rows(h, parallel, y -> {
+			int src=from + y*w;
+			int dst=y*w;
+			for(int x=0;x<w; ++x){
+				pixels[dst+x]=colour.of(values[src+x]);
+			}
+		});
+	}
+
+	private static int sliceStart(Vector size, int z){
+		if(z != 0 && !(size instanceof Vector3D)){
+			throw new IllegalArgumentException("only 3D lattices have z-slices");
+		}
+		return Vector.wrapVal(z, size instanceof Vector3D ? size.get(2) : 1)*size.get(0)*size.get(1);
+	}
+
+	private static void checkSize(int[] pixels, int offset, int stride, int w, int h){
+		if(offset + (h-1)*stride + w > pixels.length){
+			throw new IllegalArgumentException("the pixel array is too small for the lattice");
+		}
+	}
+
+	private interface Row {
+		void render(int y);
+	}
+
+	private static void rows(int h, boolean parallel, Row row){
+		if(parallel){
+			IntStream.range(0, h).parallel().forEach(row::render);
+		}
+		else{
+			for(int y=0;y<h; ++y){
+				row.render(y);
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.reflect.Array;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+* The bookkeeping for stepping an array of primitive values (used by IntField and FloatField) in slabs of units, which 
+* are rows in 2D and z-planes in 3D. Each slab can be processed by a different thread. 
+* With double buffering the new values are written to a second array, and the old ones are read from the first. 
+* In single buffer mode the new values of each unit are first written to a scratch unit (out) and then copied over 
+* the old ones, after saving these in a small rolling window of radius units, so the following units can still read 
+* them. Before any slab starts, the first and last radius units of every slab are saved as well (top and bottom), 
+* as the units wrapping around and those of the neighbouring slabs may be overwritten before they are read.
+* The results are identical to double buffering, with an extra memory of about 4 * radius + 1 units per slab.
+* 
+* @author Pablo Miranda Carranza
+*/
+
+final class RollingWindow {
+
+	final RollingWindow[] slabs;
+	final Object field;
+	final Object target;
+	final int first;
+	final int last;
+	final int unit;
+	final int radius;
+
+	Object top;
+	Object bottom;
+	Object ring;
+	Object out;
+	int offset; //the offset in the array returned by the last call to resolve()
+
+	private RollingWindow(RollingWindow[] slabs, Object field, Object target, int first, int last, int unit, int radius){
+		this.slabs=slabs;
+		this.field=field;
+		this.target=target;
+		this.first=first;
+		this.last=last;
+		this.unit=unit;
+		this.radius=radius;
+	}
+
+    /**
+     * Divides an array in slabs.
+     * @param field     The array with the old values (int[] or float[]).
+     * @param target    The array for the new values with double buffering, or null for single buffer mode.
+     * @param units     Number of units (rows or z-planes) in the array.
+     * @param unit      Number of values in each unit.
+     * @param radius    The largest distance, in units, from which old values are read.
+     * @param parallel  If true, one slab is made for every available processor, otherwise only one.
+     * @return the slabs.
+     */
+	static RollingWindow[] partition(Object field, Object target, int units, int unit, int radius, boolean parallel){
+		int count=parallel ? Math.max(1, Math.min(units, Runtime.getRuntime().availableProcessors())) : 1;
+		RollingWindow[] slabs=new RollingWindow[count];
+		for(int s=0;s<count; ++s){
+			slabs[s]=new RollingWindow(slabs, field, target, s*units/count, (s+1)*units/count, unit, radius);
+		}
+		return slabs;
+	}
+
+    /**
+     * Calls body for each slab index, after saving the first and last units of all the slabs.
+     * @param count     Number of slabs.
+     * @param parallel  If true, the slabs are processed in parallel.
+     * @param save      The slabs to save before starting, or null.
+     * @param body      Processes one slab.
+     */
+	static void forEachSlab(int count, boolean parallel, RollingWindow[][] save, IntConsumer body){
+		if(save != null){
+			for(RollingWindow[] slabs: save){
+				for(RollingWindow slab: slabs){
+					slab.saveEdges();
+				}
+			}
+		}
+		IntStream range=IntStream.range(0, count);
+		(parallel ? range.parallel() : range).forEach(body);
+	}
+
+	private void saveEdges(){
+		if(target != null){
+			return;
+		}
+		int n=Math.min(radius, last-first);
+		top=Array.newInstance(field.getClass().getComponentType(), n*unit);
+		bottom=Array.newInstance(field.getClass().getComponentType(), n*unit);
+		System.arraycopy(field, first*unit, top, 0, n*unit);
+		System.arraycopy(field, (last-n)*unit, bottom, 0, n*unit);
+		ring=Array.newInstance(field.getClass().getComponentType(), radius*unit);
+		out=Array.newInstance(field.getClass().getComponentType(), unit);
+	}
+
+    /**
+     * Finds where the old values of a unit are, while the given current unit of this slab is being calculated.
+     * @param u         The unit to read (already wrapped).
+     * @param current   The unit of this slab being calculated.
+     * @return the array holding the old values of u, starting at offset.
+     */
+	Object resolve(int u, int current){
+		if(target != null || (u >= first && u < last && u >= current)){
+			offset=u*unit;
+			return field;
+		}
+		if(u >= first && u < last){ //already overwritten by this slab
+			if(u < first+radius){
+				offset=(u-first)*unit;
+				return top;
+			}
+			offset=((u-first) % radius)*unit;
+			return ring;
+		}
+		RollingWindow slab=slabs[0];
+		for(RollingWindow s: slabs){
+			if(u >= s.first && u < s.last){
+				slab=s;
+			}
+		}
+		int n=Math.min(radius, slab.last-slab.first);
+		if(u < slab.first+n){
+			offset=(u-slab.first)*unit;
+			return slab.top;
+		}
+		offset=(u-(slab.last-n))*unit;
+		return slab.bottom;
+	}
+
+    /**
+     * @return the array to which the new values should be written.
+     */
+	Object dst(){
+		return target != null ? target : out;
+	}
+
+    /**
+     * @param u     The unit being calculated.
+     * @return the position in dst() where the new values of u start.
+     */
+	int dstOffset(int u){
+		return target != null ? u*unit : 0;
+	}
+
+    /**
+     * Called once the new values of a unit are calculated. In single buffer mode, it saves the old values in the ring 
+     * (if they are not already in top) and copies the new ones over them.
+     * @param u     The unit calculated.
+     */
+	void commit(int u){
+		if(target != null){
+			return;
+		}
+		if(radius > 0 && u >= first+radius){
+			System.arraycopy(field, u*unit, ring, ((u-first) % radius)*unit, unit);
+		}
+		System.arraycopy(out, 0, field, u*unit, unit);
+	}
+}
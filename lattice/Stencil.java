@@ -0,0 +1,107 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+
+/**
+* A linear stencil, described as a list of relative positions and the weight given to the value found at each of them.
+* It is used by FloatField to calculate the new value of each site as the weighted sum of the old values around it.
+* The relative positions include the site itself if it has to be part of the sum (for example, in a diffusion stencil
+* the central weight is 1 - 4 * rate in 2D). Positions outside the field are wrapped as in Vector.wrapVal().
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class Stencil {
+
+	final int dims;
+	final int[] dx;
+	final int[] dy;
+	final int[] dz;
+	final float[] weights;
+
+    /**
+     * Constructor for 2D stencils.
+     * @param dx          The x offsets of the neighbours.
+     * @param dy          The y offsets of the neighbours.
+     * @param weights     The weight for each neighbour.
+     */
+	public Stencil(int[] dx, int[] dy, float[] weights){
+		this(2, dx, dy, new int[dx.length], weights);
+	}
+
+    /**
+     * Constructor for 3D stencils.
+     * @param dx          The x offsets of the neighbours.
+     * @param dy          The y offsets of the neighbours.
+     * @param dz          The z offsets of the neighbours.
+     * @param weights     The weight for each neighbour.
+     */
+	public Stencil(int[] dx, int[] dy, int[] dz, float[] weights){
+		this(3, dx, dy, dz, weights);
+	}
+
+	private Stencil(int dims, int[] dx, int[] dy, int[] dz, float[] weights){
+		if(dx.length != weights.length || dy.length != weights.length || dz.length != weights.length){
+			throw new IllegalArgumentException("the offsets and weights of a Stencil need to have the same length");
+		}
+		this.dims=dims;
+		this.dx=dx.clone();
+		this.dy=dy.clone();
+		this.dz=dz.clone();
+		this.weights=weights.clone();
+	}
+
+    /**
+     * @param  rate      The diffusion rate (the diffusion coefficient multiplied by the time step), at most 0.25 for stability.
+     * @return a 2D stencil for an explicit diffusion step over the vonNeumann neighbourhood.
+     */
+	public static Stencil diffusion2D(float rate){
+		return new Stencil(
+			new int[]  {    0,   -1,          0,    1,    0},
+			new int[]  {   -1,    0,          0,    0,    1},
+			new float[]{ rate, rate, 1 - 4*rate, rate, rate}
+		);
+	}
+
+    /**
+     * @param  rate      The diffusion rate (the diffusion coefficient multiplied by the time step), at most 1/6 for stability.
+     * @return a 3D stencil for an explicit diffusion step over the vonNeumann neighbourhood.
+     */
+	public static Stencil diffusion3D(float rate){
+		return new Stencil(
+			new int[]  {    0,    0,   -1,          0,    1,    0,    0},
+			new int[]  {    0,   -1,    0,          0,    0,    1,    0},
+			new int[]  {   -1,    0,    0,          0,    0,    0,    1},
+			new float[]{ rate, rate, rate, 1 - 6*rate, rate, rate, rate}
+		);
+	}
+
+    /**
+     * @return the number of terms (neighbours) of the stencil.
+     */
+	public int size(){
+		return weights.length;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+/**
+* Implemented by the classes that keep data derived from the cells of a Lattice (such as LatticeHistory and 
+* AggregatePyramid), which the Lattice notifies after every step() and stepBlocks().
+* 
+* @author Pablo Miranda Carranza
+*/
+
+interface StepListener {
+
+    /**
+     * Called by the Lattice once the new generation is in its past cells.
+     */
+	void stepped();
+
+    /**
+     * Called when the past cells have been restored to an earlier generation (see LatticeHistory.seek()), so any 
+     * number of cells may have changed.
+     */
+	void restored();
+}
@@ -0,0 +1,281 @@
+/*
+Copyright 2017 Pablo Miranda Carranza
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+/**
+ * lattice package, library to make easier writing Cellular Automata in Processing.
+ *
+ * @author Pablo Miranda Carranza
+ */
+
+package lattice;
+
+import java.lang.IllegalArgumentException;
+
+/**
+* A totalistic or outer-totalistic rule compiled into a lookup table. The neighbourhood is given as a list of relative
+* positions, each with an integer weight, and the states are given an integer value. The sum of a site is the weighted 
+* sum of the values of its neighbours, and the next state of the site is looked up in the table from its current 
+* state and that sum. This covers B/S (life-like) rules, multi-state Generations rules, and weighted totalistic rules 
+* (if the site itself is included in the neighbourhood, the rule becomes purely totalistic).
+* The compiled rule is run over the whole lattice by IntField.step(), without any per-cell code. It can also be used 
+* from the step() method of a LatticeCell, through next(oldCell, state).
+* 
+* @author Pablo Miranda Carranza
+*/
+
+public class TotalisticRule {
+
+    /**
+     * The declarative definition of the rule, from which the lookup table is compiled.
+     */
+	public interface Transition {
+	    /**
+	     * @param state      The current state of the site.
+	     * @param sum        The weighted sum of its neighbours.
+	     * @return the next state of the site.
+	     */
+		int next(int state, int sum);
+	}
+
+    /**
+     * Reads the state of a LatticeCell, to use the rule from its step() method.
+     */
+	public interface State<CT> {
+		int of(CT cell);
+	}
+
+	final int dims;
+	final int states;
+	final int[] dx;
+	final int[] dy;
+	final int[] dz;
+	final int[] weights;
+	final int[] stateValues;
+	final Vector[] offsets;
+	final int minSum;
+	final int range;
+	final int[] table;
+
+	private TotalisticRule(int dims, int states, int[] dx, int[] dy, int[] dz, int[] weights, int[] stateValues, Transition transition){
+		if(dx.length != weights.length || dy.length != weights.length || dz.length != weights.length){
+			throw new IllegalArgumentException("the offsets and weights of a TotalisticRule need to have the same length");
+		}
+		if(stateValues.length != states){
+			throw new IllegalArgumentException("a TotalisticRule needs one value for each of its states");
+		}
+		this.dims=dims;
+		this.states=states;
+		this.dx=dx.clone();
+		this.dy=dy.clone();
+		this.dz=dz.clone();
+		this.weights=weights.clone();
+		this.stateValues=stateValues.clone();
+
+		offsets=new Vector[weights.length];
+		int min=0;
+		int max=0;
+		for(int k=0;k<weights.length; ++k){
+			offsets[k]= dims == 2 ? new Vector2D(dx[k],dy[k]) : new Vector3D(dx[k],dy[k],dz[k]);
+			int lo=Integer.MAX_VALUE;
+			int hi=Integer.MIN_VALUE;
+			for(int v: stateValues){
+				lo=Math.min(lo, weights[k]*v);
+				hi=Math.max(hi, weights[k]*v);
+			}
+			min+=lo;
+			max+=hi;
+		}
+		minSum=min;
+		range=max-min+1;
+
+		table=new int[states*range];
+		for(int s=0;s<states; ++s){
+			for(int sum=min;sum<=max; ++sum){
+				int next=transition.next(s, sum);
+				if(next < 0 || next >= states){
+					throw new IllegalArgumentException("the Transition of a TotalisticRule returned the state " + next + ", out of range");
+				}
+				table[s*range + sum-min]=next;
+			}
+		}
+	}
+
+    /**
+     * Compiles a 2D rule.
+     * @param states        Number of states (0 to states-1).
+     * @param dx            The x offsets of the neighbours.
+     * @param dy            The y offsets of the neighbours.
+     * @param weights       The weight of each neighbour.
+     * @param stateValues   The value of each state in the sum.
+     * @param transition    The definition of the rule.
+     * @return the compiled rule.
+     */
+	public static TotalisticRule compile(int states, int[] dx, int[] dy, int[] weights, int[] stateValues, Transition transition){
+		return new TotalisticRule(2, states, dx, dy, new int[dx.length], weights, stateValues, transition);
+	}
+
+    /**
+     * Compiles a 3D rule.
+     * @param states        Number of states (0 to states-1).
+     * @param dx            The x offsets of the neighbours.
+     * @param dy            The y offsets of the neighbours.
+     * @param dz            The z offsets of the neighbours.
+     * @param weights       The weight of each neighbour.
+     * @param stateValues   The value of each state in the sum.
+     * @param transition    The definition of the rule.
+     * @return the compiled rule.
+     */
+	public static TotalisticRule compile(int states, int[] dx, int[] dy, int[] dz, int[] weights, int[] stateValues, Transition transition){
+		return new TotalisticRule(3, states, dx, dy, dz, weights, stateValues, transition);
+	}
+
+    /**
+     * Compiles a Generations rule over the Moore neighbourhood (in 2D or 3D). State 0 is dead, 1 is alive and 
+     * the rest are dying: they do not count as neighbours and always move to the next state, wrapping to 0. 
+     * With 2 states this is a life-like B/S rule.
+     * @param birth         Numbers of live neighbours for which a dead cell becomes alive.
+     * @param survive       Numbers of live neighbours for which a live cell stays alive.
+     * @param states        Number of states, at least 2.
+     * @param threeD        If true, the rule is for 3D lattices (26 neighbours), otherwise for 2D (8 neighbours).
+     * @return the compiled rule.
+     */
+	public static TotalisticRule generations(int[] birth, int[] survive, int states, boolean threeD){
+		if(states < 2){
+			throw new IllegalArgumentException("a Generations rule needs at least 2 states");
+		}
+		boolean[] b=new boolean[threeD ? 27 : 9];
+		boolean[] s=new boolean[b.length];
+		for(int n: birth){ b[count(n, b.length)]=true; }
+		for(int n: survive){ s[count(n, s.length)]=true; }
+
+		int[] stateValues=new int[states];
+		stateValues[1]=1;
+		Transition transition=new Transition(){
+			public int next(int state, int sum){
+				if(state == 0){
+					return b[sum] ? 1 : 0;
+				}
+				if(state == 1 && s[sum]){
+					return 1;
+				}
+				return (state+1) % states;
+			}
+		};
+
+		int n=threeD ? 26 : 8;
+		int[] dx=new int[n];
+		int[] dy=new int[n];
+		int[] dz=new int[n];
+		int[] weights=new int[n];
+		int k=0;
+		for(int z= threeD ? -1 : 0;z<=(threeD ? 1 : 0); ++z){
+			for(int y=-1;y<=1; ++y){
+				for(int x=-1;x<=1; ++x){
+					if(x != 0 || y != 0 || z != 0){
+						dx[k]=x;
+						dy[k]=y;
+						dz[k]=z;
+						weights[k++]=1;
+					}
+				}
+			}
+		}
+		return new TotalisticRule(threeD ? 3 : 2, states, dx, dy, dz, weights, stateValues, transition);
+	}
+
+    /**
+     * Compiles a 2D rule given in B/S notation, such as "B3/S23" for the Game of Life, or in the Generations 
+     * notation with the number of states, such as "B2/S/C3" (also "B2/S/3") for Brian's Brain.
+     * @param rule          The rule string.
+     * @return the compiled rule.
+     */
+	public static TotalisticRule parse(String rule){
+		String[] parts=rule.trim().toUpperCase().split("/");
+		int[] birth=null;
+		int[] survive=null;
+		int states=2;
+		for(String part: parts){
+			if(part.startsWith("B")){
+				birth=digits(part.substring(1), rule);
+			}
+			else if(part.startsWith("S")){
+				survive=digits(part.substring(1), rule);
+			}
+			else if(part.startsWith("C") || part.startsWith("G")){
+				states=Integer.parseInt(part.substring(1));
+			}
+			else if(!part.isEmpty() && birth != null && survive != null){
+				states=Integer.parseInt(part);
+			}
+			else{
+				throw new IllegalArgumentException("cannot parse the rule " + rule);
+			}
+		}
+		if(birth == null || survive == null){
+			throw new IllegalArgumentException("the rule " + rule + " needs both B and S parts");
+		}
+		return generations(birth, survive, states, false);
+	}
+
+	private static int count(int n, int counts){
+		if(n < 0 || n >= counts){
+			throw new IllegalArgumentException("a Generations rule cannot have " + n + " live neighbours, only 0 to " + (counts-1));
+		}
+		return n;
+	}
+
+	private static int[] digits(String part, String rule){
+		int[] n=new int[part.length()];
+		for(int i=0;i<n.length; ++i){
+			n[i]=part.charAt(i)-'0';
+			if(n[i] < 0 || n[i] > 8){
+				throw new IllegalArgumentException("cannot parse the rule " + rule);
+			}
+		}
+		return n;
+	}
+
+    /**
+     * @param state     The current state of a site.
+     * @param sum       The weighted sum of its neighbours.
+     * @return the next state, looked up in the table.
+     */
+	public int next(int state, int sum){
+		return table[state*range + sum-minSum];
+	}
+
+    /**
+     * Applies the rule from the step() method of a LatticeCell, for lattices that cannot use IntField.
+     * @param oldCell   The past state of the cell, as given to step().
+     * @param state     Reads the state of a cell.
+     * @return the next state of the cell.
+     */
+	public <CT extends LatticeCell<CT>> int next(CT oldCell, State<CT> state){
+		Buffer<CT> buffer=oldCell.buffer();
+		int sum=0;
+		for(int k=0;k<offsets.length; ++k){
+			sum+=weights[k]*stateValues[state.of(buffer.getRelative(oldCell.index, offsets[k]))];
+		}
+		return next(state.of(oldCell), sum);
+	}
+
+    /**
+     * @return the number of states of the rule.
+     */
+	public int getStates(){
+		return states;
+	}
+}
@@ -50,6 +50,23 @@ public abstract class Vector {
      */
     abstract Vector foldInto(int n);
 
+    /**
+     * Same as foldInto(n).get(coord), but without instantiating a new Vector. 
+     * @param n a position on a one dimensional array
+     * @param coord index of the coordinate (0,1,2,...n)
+     * @return the corresponding coordinate of the n dimensional position, if this vector specifies a size
+     */
+    abstract int foldCoord(int n, int coord);
+
+    /**
+     * It offsets a position in a one dimensional array by a relative Vector, wrapping it around in a "toroidal" space, 
+     * as in foldInto(n).addition(offset).wrapAround(this).unfoldOn(this), but without instantiating any new Vector.
+     * @param n a position on a one dimensional array
+     * @param offset the relative position to add
+     * @return the wrapped position on the one dimensional array, if this vector specifies a size
+     */
+    abstract int offsetIndex(int n, Vector offset);
+
     /**
      * It wraps around this position in a "toroidal" space. See the mechanics of wrapVal, which will be called for each 
      * component of the vector.
@@ -84,6 +101,6 @@ public abstract class Vector {
      * @return the wrapped value
      */
 	protected static int wrapVal(int val, int max){
-		return val < 0 ? (max  - ((-val) % max )) : val >= max  ? val % max  : val;
+		return val < 0 ? (max - 1 - ((-val - 1) % max)) : val >= max  ? val % max  : val;
 	} 
 }
@@ -51,6 +51,16 @@ public class Vector2D extends Vector{
         return new Vector2D(xp,yp);
     }
 
+    int foldCoord(int n, int coord){
+        return coord == 0 ? n % x : n / x;
+    }
+
+    int offsetIndex(int n, Vector offset){
+        int xp=wrapVal(n % x + offset.get(0), x);
+        int yp=wrapVal(n / x + offset.get(1), y);
+        return yp*x + xp;
+    }
+
 	Vector wrapAround(Vector vSize){
 		return new Vector2D(wrapVal(x,vSize.get(0)),wrapVal(y,vSize.get(1)));
 	}
@@ -53,6 +53,17 @@ public class Vector3D extends Vector{
         return new Vector3D(xp,yp,zp);
     }
 
+    int foldCoord(int n, int coord){
+        return coord == 0 ? n % x : coord == 1 ? (n / x) % y : n / (x*y);
+    }
+
+    int offsetIndex(int n, Vector offset){
+        int xp=wrapVal(n % x + offset.get(0), x);
+        int yp=wrapVal((n / x) % y + offset.get(1), y);
+        int zp=wrapVal(n / (x*y) + offset.get(2), z);
+        return zp*x*y + yp*x + xp;
+    }
+
 
     Vector wrapAround(Vector vSize){
         return new Vector3D(wrapVal(x,vSize.get(0)),wrapVal(y,vSize.get(1)),wrapVal(z,vSize.get(2)));